@@ -0,0 +1,85 @@
+package com.aitorvs.android.allowme;
+
+/*
+ * Copyright (C) 17/10/26 aitorvs
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Cost of finding and calling the {@link OnPermissionResult} handler of a request: scanning the
+ * handler class with reflection on every request, as the former
+ * <code>Builder.getAnnotatedMethod</code> did, against the cached, generated dispatchers
+ */
+@State(Scope.Thread)
+public class AnnotatedHandlerBenchmark {
+
+    private static final int REQUEST_CODE = 42;
+
+    @Param({"small", "large"})
+    String handlerSize;
+
+    private Object mHandler;
+    private String[] mSortedPermissions;
+    private PermissionResultSet mResults;
+    private PermissionResultDispatcher<Object> mGenerated;
+    private PermissionResultDispatcher<Object> mReflective;
+    private int mGeneratedHandler;
+    private int mReflectiveHandler;
+
+    @Setup
+    public void setUp() {
+        final String[] permissions;
+        if ("small".equals(handlerSize)) {
+            mHandler = new SmallHandler();
+            permissions = SmallHandler.PERMISSIONS;
+        } else {
+            mHandler = new LargeHandler();
+            permissions = LargeHandler.PERMISSIONS;
+        }
+
+        mSortedPermissions = PermissionResultDispatchers.sorted(permissions);
+        mResults = PermissionResultSet.create(permissions,
+                new int[]{PermissionResultSet.PERMISSION_GRANTED, PermissionResultSet.PERMISSION_DENIED});
+        mGenerated = PermissionResultDispatchers.get(mHandler.getClass());
+        mGeneratedHandler = mGenerated.findHandler(mSortedPermissions);
+        mReflective = new PermissionResultDispatchers.ReflectiveDispatcher(mHandler.getClass());
+        mReflectiveHandler = mReflective.findHandler(mSortedPermissions);
+    }
+
+    @Benchmark
+    public int reflectiveLookup() {
+        return new PermissionResultDispatchers.ReflectiveDispatcher(mHandler.getClass()).findHandler(mSortedPermissions);
+    }
+
+    @Benchmark
+    public int generatedLookup() {
+        return PermissionResultDispatchers.get(mHandler.getClass()).findHandler(PermissionResultDispatchers.sorted(mSortedPermissions));
+    }
+
+    @Benchmark
+    public void reflectiveDispatch() {
+        mReflective.dispatch(mHandler, mReflectiveHandler, REQUEST_CODE, mResults);
+    }
+
+    @Benchmark
+    public void generatedDispatch() {
+        mGenerated.dispatch(mHandler, mGeneratedHandler, REQUEST_CODE, mResults);
+    }
+}
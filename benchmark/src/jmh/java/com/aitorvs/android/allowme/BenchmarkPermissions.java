@@ -0,0 +1,61 @@
+package com.aitorvs.android.allowme;
+
+/*
+ * Copyright (C) 17/10/26 aitorvs
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.util.Arrays;
+
+/**
+ * Permission names used by the benchmarks
+ */
+final class BenchmarkPermissions {
+
+    static final String READ_CALENDAR = "android.permission.READ_CALENDAR";
+    static final String WRITE_CALENDAR = "android.permission.WRITE_CALENDAR";
+    static final String CAMERA = "android.permission.CAMERA";
+    static final String READ_CONTACTS = "android.permission.READ_CONTACTS";
+    static final String WRITE_CONTACTS = "android.permission.WRITE_CONTACTS";
+    static final String GET_ACCOUNTS = "android.permission.GET_ACCOUNTS";
+    static final String ACCESS_FINE_LOCATION = "android.permission.ACCESS_FINE_LOCATION";
+    static final String ACCESS_COARSE_LOCATION = "android.permission.ACCESS_COARSE_LOCATION";
+    static final String RECORD_AUDIO = "android.permission.RECORD_AUDIO";
+    static final String READ_PHONE_STATE = "android.permission.READ_PHONE_STATE";
+    static final String CALL_PHONE = "android.permission.CALL_PHONE";
+    static final String READ_CALL_LOG = "android.permission.READ_CALL_LOG";
+    static final String WRITE_CALL_LOG = "android.permission.WRITE_CALL_LOG";
+    static final String BODY_SENSORS = "android.permission.BODY_SENSORS";
+    static final String SEND_SMS = "android.permission.SEND_SMS";
+    static final String READ_EXTERNAL_STORAGE = "android.permission.READ_EXTERNAL_STORAGE";
+
+    static final String[] ALL = {
+            READ_CALENDAR, WRITE_CALENDAR, CAMERA, READ_CONTACTS, WRITE_CONTACTS, GET_ACCOUNTS,
+            ACCESS_FINE_LOCATION, ACCESS_COARSE_LOCATION, RECORD_AUDIO, READ_PHONE_STATE, CALL_PHONE,
+            READ_CALL_LOG, WRITE_CALL_LOG, BODY_SENSORS, SEND_SMS, READ_EXTERNAL_STORAGE
+    };
+
+    private BenchmarkPermissions() {
+    }
+
+    /**
+     * @param count number of permissions
+     * @return the first <code>count</code> permissions, interned
+     */
+    static String[] first(int count) {
+        String[] permissions = Arrays.copyOf(ALL, count);
+        PermissionRegistry.maskOf(permissions);
+        return permissions;
+    }
+}
@@ -0,0 +1,65 @@
+package com.aitorvs.android.allowme;
+
+/*
+ * Copyright (C) 17/10/26 aitorvs
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Startup feature gating: checking N permissions one by one, against a single bulk query of a
+ * precompiled {@link PermissionSet}
+ */
+@State(Scope.Thread)
+public class BulkQueryBenchmark {
+
+    @Param({"4", "16"})
+    int permissionCount;
+
+    private PermissionEngine mEngine;
+    private String[] mPermissions;
+    private PermissionSet mPermissionSet;
+
+    @Setup
+    public void setUp() {
+        final FakePermissionBackend backend = new FakePermissionBackend();
+        mEngine = new PermissionEngine(backend);
+        mPermissions = BenchmarkPermissions.first(permissionCount);
+        mPermissionSet = PermissionSet.of(mPermissions);
+        for (int i = 0; i < mPermissions.length; i += 2) {
+            backend.grant(mPermissions[i]);
+        }
+    }
+
+    @Benchmark
+    public int oneByOne() {
+        int granted = 0;
+        for (String permission : mPermissions) {
+            if (mEngine.isPermissionGranted(permission)) {
+                granted++;
+            }
+        }
+        return granted;
+    }
+
+    @Benchmark
+    public long bulk() {
+        return mEngine.queryState(mPermissionSet);
+    }
+}
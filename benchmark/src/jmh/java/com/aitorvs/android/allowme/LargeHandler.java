@@ -0,0 +1,350 @@
+package com.aitorvs.android.allowme;
+
+/*
+ * Copyright (C) 17/10/26 aitorvs
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import static com.aitorvs.android.allowme.BenchmarkPermissions.*;
+
+/**
+ * Handler class with many {@link OnPermissionResult} annotated methods, the last one handles
+ * {@link #PERMISSIONS}
+ */
+public class LargeHandler {
+
+    static final String[] PERMISSIONS = {WRITE_CONTACTS, SEND_SMS};
+
+    int handled;
+
+    @OnPermissionResult(requestedPermissions = {READ_CALENDAR, WRITE_CALENDAR})
+    void handle0(int requestCode, PermissionResultSet results) {
+        handled++;
+    }
+
+    @OnPermissionResult(requestedPermissions = {READ_CALENDAR, CAMERA})
+    void handle1(int requestCode, PermissionResultSet results) {
+        handled++;
+    }
+
+    @OnPermissionResult(requestedPermissions = {READ_CALENDAR, READ_CONTACTS})
+    void handle2(int requestCode, PermissionResultSet results) {
+        handled++;
+    }
+
+    @OnPermissionResult(requestedPermissions = {READ_CALENDAR, WRITE_CONTACTS})
+    void handle3(int requestCode, PermissionResultSet results) {
+        handled++;
+    }
+
+    @OnPermissionResult(requestedPermissions = {READ_CALENDAR, GET_ACCOUNTS})
+    void handle4(int requestCode, PermissionResultSet results) {
+        handled++;
+    }
+
+    @OnPermissionResult(requestedPermissions = {READ_CALENDAR, ACCESS_FINE_LOCATION})
+    void handle5(int requestCode, PermissionResultSet results) {
+        handled++;
+    }
+
+    @OnPermissionResult(requestedPermissions = {READ_CALENDAR, ACCESS_COARSE_LOCATION})
+    void handle6(int requestCode, PermissionResultSet results) {
+        handled++;
+    }
+
+    @OnPermissionResult(requestedPermissions = {READ_CALENDAR, RECORD_AUDIO})
+    void handle7(int requestCode, PermissionResultSet results) {
+        handled++;
+    }
+
+    @OnPermissionResult(requestedPermissions = {READ_CALENDAR, READ_PHONE_STATE})
+    void handle8(int requestCode, PermissionResultSet results) {
+        handled++;
+    }
+
+    @OnPermissionResult(requestedPermissions = {READ_CALENDAR, CALL_PHONE})
+    void handle9(int requestCode, PermissionResultSet results) {
+        handled++;
+    }
+
+    @OnPermissionResult(requestedPermissions = {READ_CALENDAR, READ_CALL_LOG})
+    void handle10(int requestCode, PermissionResultSet results) {
+        handled++;
+    }
+
+    @OnPermissionResult(requestedPermissions = {READ_CALENDAR, WRITE_CALL_LOG})
+    void handle11(int requestCode, PermissionResultSet results) {
+        handled++;
+    }
+
+    @OnPermissionResult(requestedPermissions = {READ_CALENDAR, BODY_SENSORS})
+    void handle12(int requestCode, PermissionResultSet results) {
+        handled++;
+    }
+
+    @OnPermissionResult(requestedPermissions = {READ_CALENDAR, SEND_SMS})
+    void handle13(int requestCode, PermissionResultSet results) {
+        handled++;
+    }
+
+    @OnPermissionResult(requestedPermissions = {READ_CALENDAR, READ_EXTERNAL_STORAGE})
+    void handle14(int requestCode, PermissionResultSet results) {
+        handled++;
+    }
+
+    @OnPermissionResult(requestedPermissions = {WRITE_CALENDAR, CAMERA})
+    void handle15(int requestCode, PermissionResultSet results) {
+        handled++;
+    }
+
+    @OnPermissionResult(requestedPermissions = {WRITE_CALENDAR, READ_CONTACTS})
+    void handle16(int requestCode, PermissionResultSet results) {
+        handled++;
+    }
+
+    @OnPermissionResult(requestedPermissions = {WRITE_CALENDAR, WRITE_CONTACTS})
+    void handle17(int requestCode, PermissionResultSet results) {
+        handled++;
+    }
+
+    @OnPermissionResult(requestedPermissions = {WRITE_CALENDAR, GET_ACCOUNTS})
+    void handle18(int requestCode, PermissionResultSet results) {
+        handled++;
+    }
+
+    @OnPermissionResult(requestedPermissions = {WRITE_CALENDAR, ACCESS_FINE_LOCATION})
+    void handle19(int requestCode, PermissionResultSet results) {
+        handled++;
+    }
+
+    @OnPermissionResult(requestedPermissions = {WRITE_CALENDAR, ACCESS_COARSE_LOCATION})
+    void handle20(int requestCode, PermissionResultSet results) {
+        handled++;
+    }
+
+    @OnPermissionResult(requestedPermissions = {WRITE_CALENDAR, RECORD_AUDIO})
+    void handle21(int requestCode, PermissionResultSet results) {
+        handled++;
+    }
+
+    @OnPermissionResult(requestedPermissions = {WRITE_CALENDAR, READ_PHONE_STATE})
+    void handle22(int requestCode, PermissionResultSet results) {
+        handled++;
+    }
+
+    @OnPermissionResult(requestedPermissions = {WRITE_CALENDAR, CALL_PHONE})
+    void handle23(int requestCode, PermissionResultSet results) {
+        handled++;
+    }
+
+    @OnPermissionResult(requestedPermissions = {WRITE_CALENDAR, READ_CALL_LOG})
+    void handle24(int requestCode, PermissionResultSet results) {
+        handled++;
+    }
+
+    @OnPermissionResult(requestedPermissions = {WRITE_CALENDAR, WRITE_CALL_LOG})
+    void handle25(int requestCode, PermissionResultSet results) {
+        handled++;
+    }
+
+    @OnPermissionResult(requestedPermissions = {WRITE_CALENDAR, BODY_SENSORS})
+    void handle26(int requestCode, PermissionResultSet results) {
+        handled++;
+    }
+
+    @OnPermissionResult(requestedPermissions = {WRITE_CALENDAR, SEND_SMS})
+    void handle27(int requestCode, PermissionResultSet results) {
+        handled++;
+    }
+
+    @OnPermissionResult(requestedPermissions = {WRITE_CALENDAR, READ_EXTERNAL_STORAGE})
+    void handle28(int requestCode, PermissionResultSet results) {
+        handled++;
+    }
+
+    @OnPermissionResult(requestedPermissions = {CAMERA, READ_CONTACTS})
+    void handle29(int requestCode, PermissionResultSet results) {
+        handled++;
+    }
+
+    @OnPermissionResult(requestedPermissions = {CAMERA, WRITE_CONTACTS})
+    void handle30(int requestCode, PermissionResultSet results) {
+        handled++;
+    }
+
+    @OnPermissionResult(requestedPermissions = {CAMERA, GET_ACCOUNTS})
+    void handle31(int requestCode, PermissionResultSet results) {
+        handled++;
+    }
+
+    @OnPermissionResult(requestedPermissions = {CAMERA, ACCESS_FINE_LOCATION})
+    void handle32(int requestCode, PermissionResultSet results) {
+        handled++;
+    }
+
+    @OnPermissionResult(requestedPermissions = {CAMERA, ACCESS_COARSE_LOCATION})
+    void handle33(int requestCode, PermissionResultSet results) {
+        handled++;
+    }
+
+    @OnPermissionResult(requestedPermissions = {CAMERA, RECORD_AUDIO})
+    void handle34(int requestCode, PermissionResultSet results) {
+        handled++;
+    }
+
+    @OnPermissionResult(requestedPermissions = {CAMERA, READ_PHONE_STATE})
+    void handle35(int requestCode, PermissionResultSet results) {
+        handled++;
+    }
+
+    @OnPermissionResult(requestedPermissions = {CAMERA, CALL_PHONE})
+    void handle36(int requestCode, PermissionResultSet results) {
+        handled++;
+    }
+
+    @OnPermissionResult(requestedPermissions = {CAMERA, READ_CALL_LOG})
+    void handle37(int requestCode, PermissionResultSet results) {
+        handled++;
+    }
+
+    @OnPermissionResult(requestedPermissions = {CAMERA, WRITE_CALL_LOG})
+    void handle38(int requestCode, PermissionResultSet results) {
+        handled++;
+    }
+
+    @OnPermissionResult(requestedPermissions = {CAMERA, BODY_SENSORS})
+    void handle39(int requestCode, PermissionResultSet results) {
+        handled++;
+    }
+
+    @OnPermissionResult(requestedPermissions = {CAMERA, SEND_SMS})
+    void handle40(int requestCode, PermissionResultSet results) {
+        handled++;
+    }
+
+    @OnPermissionResult(requestedPermissions = {CAMERA, READ_EXTERNAL_STORAGE})
+    void handle41(int requestCode, PermissionResultSet results) {
+        handled++;
+    }
+
+    @OnPermissionResult(requestedPermissions = {READ_CONTACTS, WRITE_CONTACTS})
+    void handle42(int requestCode, PermissionResultSet results) {
+        handled++;
+    }
+
+    @OnPermissionResult(requestedPermissions = {READ_CONTACTS, GET_ACCOUNTS})
+    void handle43(int requestCode, PermissionResultSet results) {
+        handled++;
+    }
+
+    @OnPermissionResult(requestedPermissions = {READ_CONTACTS, ACCESS_FINE_LOCATION})
+    void handle44(int requestCode, PermissionResultSet results) {
+        handled++;
+    }
+
+    @OnPermissionResult(requestedPermissions = {READ_CONTACTS, ACCESS_COARSE_LOCATION})
+    void handle45(int requestCode, PermissionResultSet results) {
+        handled++;
+    }
+
+    @OnPermissionResult(requestedPermissions = {READ_CONTACTS, RECORD_AUDIO})
+    void handle46(int requestCode, PermissionResultSet results) {
+        handled++;
+    }
+
+    @OnPermissionResult(requestedPermissions = {READ_CONTACTS, READ_PHONE_STATE})
+    void handle47(int requestCode, PermissionResultSet results) {
+        handled++;
+    }
+
+    @OnPermissionResult(requestedPermissions = {READ_CONTACTS, CALL_PHONE})
+    void handle48(int requestCode, PermissionResultSet results) {
+        handled++;
+    }
+
+    @OnPermissionResult(requestedPermissions = {READ_CONTACTS, READ_CALL_LOG})
+    void handle49(int requestCode, PermissionResultSet results) {
+        handled++;
+    }
+
+    @OnPermissionResult(requestedPermissions = {READ_CONTACTS, WRITE_CALL_LOG})
+    void handle50(int requestCode, PermissionResultSet results) {
+        handled++;
+    }
+
+    @OnPermissionResult(requestedPermissions = {READ_CONTACTS, BODY_SENSORS})
+    void handle51(int requestCode, PermissionResultSet results) {
+        handled++;
+    }
+
+    @OnPermissionResult(requestedPermissions = {READ_CONTACTS, SEND_SMS})
+    void handle52(int requestCode, PermissionResultSet results) {
+        handled++;
+    }
+
+    @OnPermissionResult(requestedPermissions = {READ_CONTACTS, READ_EXTERNAL_STORAGE})
+    void handle53(int requestCode, PermissionResultSet results) {
+        handled++;
+    }
+
+    @OnPermissionResult(requestedPermissions = {WRITE_CONTACTS, GET_ACCOUNTS})
+    void handle54(int requestCode, PermissionResultSet results) {
+        handled++;
+    }
+
+    @OnPermissionResult(requestedPermissions = {WRITE_CONTACTS, ACCESS_FINE_LOCATION})
+    void handle55(int requestCode, PermissionResultSet results) {
+        handled++;
+    }
+
+    @OnPermissionResult(requestedPermissions = {WRITE_CONTACTS, ACCESS_COARSE_LOCATION})
+    void handle56(int requestCode, PermissionResultSet results) {
+        handled++;
+    }
+
+    @OnPermissionResult(requestedPermissions = {WRITE_CONTACTS, RECORD_AUDIO})
+    void handle57(int requestCode, PermissionResultSet results) {
+        handled++;
+    }
+
+    @OnPermissionResult(requestedPermissions = {WRITE_CONTACTS, READ_PHONE_STATE})
+    void handle58(int requestCode, PermissionResultSet results) {
+        handled++;
+    }
+
+    @OnPermissionResult(requestedPermissions = {WRITE_CONTACTS, CALL_PHONE})
+    void handle59(int requestCode, PermissionResultSet results) {
+        handled++;
+    }
+
+    @OnPermissionResult(requestedPermissions = {WRITE_CONTACTS, READ_CALL_LOG})
+    void handle60(int requestCode, PermissionResultSet results) {
+        handled++;
+    }
+
+    @OnPermissionResult(requestedPermissions = {WRITE_CONTACTS, WRITE_CALL_LOG})
+    void handle61(int requestCode, PermissionResultSet results) {
+        handled++;
+    }
+
+    @OnPermissionResult(requestedPermissions = {WRITE_CONTACTS, BODY_SENSORS})
+    void handle62(int requestCode, PermissionResultSet results) {
+        handled++;
+    }
+
+    @OnPermissionResult(requestedPermissions = {WRITE_CONTACTS, SEND_SMS})
+    void handle63(int requestCode, PermissionResultSet results) {
+        handled++;
+    }
+}
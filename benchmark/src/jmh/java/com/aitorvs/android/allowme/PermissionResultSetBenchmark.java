@@ -0,0 +1,76 @@
+package com.aitorvs.android.allowme;
+
+/*
+ * Copyright (C) 17/10/26 aitorvs
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Map;
+
+@State(Scope.Thread)
+public class PermissionResultSetBenchmark {
+
+    @Param({"1", "4", "16"})
+    int size;
+
+    private String[] mPermissions;
+    private int[] mGrantResults;
+    private PermissionResultSet mResults;
+
+    @Setup
+    public void setUp() {
+        mPermissions = BenchmarkPermissions.first(size);
+        mGrantResults = new int[size];
+        for (int i = 0; i < size; i++) {
+            // every other permission denied
+            mGrantResults[i] = i % 2 == 0 ? PermissionResultSet.PERMISSION_GRANTED : PermissionResultSet.PERMISSION_DENIED;
+        }
+        mResults = PermissionResultSet.create(mPermissions, mGrantResults);
+    }
+
+    @Benchmark
+    public PermissionResultSet create() {
+        return PermissionResultSet.create(mPermissions, mGrantResults);
+    }
+
+    @Benchmark
+    public boolean isGranted() {
+        return mResults.isGranted(mPermissions[size - 1]);
+    }
+
+    @Benchmark
+    public boolean allGranted() {
+        return mResults.allGranted();
+    }
+
+    @Benchmark
+    public int deniedIteration() {
+        int denied = 0;
+        for (int i = mResults.nextDenied(0); i >= 0; i = mResults.nextDenied(i + 1)) {
+            denied++;
+        }
+        return denied;
+    }
+
+    @Benchmark
+    public Map<String, Boolean> getGrantedMap() {
+        return mResults.getGrantedMap();
+    }
+}
@@ -0,0 +1,59 @@
+package com.aitorvs.android.allowme;
+
+/*
+ * Copyright (C) 17/10/26 aitorvs
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Cost of keying a pending request: the former <code>AllowMe.getRequestKey</code> string key,
+ * kept as baseline, against the permission set mask used by {@link PendingRequestTable}
+ */
+@State(Scope.Thread)
+public class RequestKeyBenchmark {
+
+    private static final int REQUEST_CODE = 42;
+
+    @Param({"1", "4", "8"})
+    int permissionCount;
+
+    private String[] mPermissions;
+
+    @Setup
+    public void setUp() {
+        mPermissions = BenchmarkPermissions.first(permissionCount);
+    }
+
+    @Benchmark
+    public String stringKey() {
+        StringBuilder result = new StringBuilder();
+        result.append(REQUEST_CODE);
+        for (String perm : mPermissions) {
+            result.append(perm);
+            result.append("\0");
+        }
+        return result.toString();
+    }
+
+    @Benchmark
+    public long permissionMask() {
+        return PermissionRegistry.maskOf(mPermissions);
+    }
+}
@@ -0,0 +1,85 @@
+package com.aitorvs.android.allowme;
+
+/*
+ * Copyright (C) 17/10/26 aitorvs
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Request/dispatch round trip through the {@link PermissionEngine}, with N other requests pending
+ * and M callbacks registered for the request
+ */
+@State(Scope.Thread)
+public class RoundTripBenchmark {
+
+    private static final int REQUEST_CODE = 42;
+
+    @Param({"1", "16", "256"})
+    int pendingKeys;
+
+    @Param({"1", "4"})
+    int callbacks;
+
+    private PermissionEngine mEngine;
+    private FakePermissionBackend mBackend;
+    private String[] mPermissions;
+    private int[] mGrantResults;
+    private AllowMeCallback mCallback;
+
+    @Setup
+    public void setUp(final Blackhole blackhole) {
+        mBackend = new FakePermissionBackend();
+        mEngine = new PermissionEngine(mBackend);
+        // requests are answered right away, no need to evict them
+        mEngine.setPendingRequestTimeout(0);
+        mPermissions = BenchmarkPermissions.first(3);
+        mGrantResults = new int[mPermissions.length];
+        mBackend.grant(mPermissions[0]);
+        // denied permissions are not denied for good, so each round trip reaches the system
+        for (int i = 1; i < mPermissions.length; i++) {
+            mBackend.setShowRationale(mPermissions[i], true);
+        }
+        mCallback = new AllowMeCallback() {
+            @Override
+            public void onPermissionResult(int requestCode, PermissionResultSet results) {
+                blackhole.consume(results);
+            }
+        };
+
+        // requests that never get an answer
+        final String[] pending = {BenchmarkPermissions.SEND_SMS};
+        for (int i = 0; i < pendingKeys; i++) {
+            mEngine.request(mCallback, null, REQUEST_CODE + 1 + i, pending, null, null, 0);
+        }
+    }
+
+    @Benchmark
+    public boolean roundTrip() {
+        // request
+        for (int i = 0; i < callbacks; i++) {
+            mEngine.request(mCallback, null, REQUEST_CODE, mPermissions, null, null, 0);
+        }
+
+        // dispatch
+        mBackend.answer(mGrantResults);
+        return mEngine.dispatchResult(mBackend.getLastRequestCode(), mBackend.getLastPermissions(), mGrantResults);
+    }
+}
@@ -0,0 +1,40 @@
+package com.aitorvs.android.allowme;
+
+/*
+ * Copyright (C) 17/10/26 aitorvs
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import static com.aitorvs.android.allowme.BenchmarkPermissions.*;
+
+/**
+ * Handler class with a couple of {@link OnPermissionResult} annotated methods, the last one
+ * handles {@link #PERMISSIONS}
+ */
+public class SmallHandler {
+
+    static final String[] PERMISSIONS = {CAMERA, RECORD_AUDIO};
+
+    int handled;
+
+    @OnPermissionResult(requestedPermissions = {READ_CONTACTS})
+    void onContacts(int requestCode, PermissionResultSet results) {
+        handled++;
+    }
+
+    @OnPermissionResult(requestedPermissions = {CAMERA, RECORD_AUDIO})
+    void onCamera(int requestCode, PermissionResultSet results) {
+        handled++;
+    }
+}
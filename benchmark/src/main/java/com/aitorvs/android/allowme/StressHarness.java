@@ -0,0 +1,373 @@
+package com.aitorvs.android.allowme;
+
+/*
+ * Copyright (C) 17/10/26 aitorvs
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import android.support.annotation.NonNull;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Concurrent request/dispatch stress test of the {@link PermissionEngine}. Worker threads make
+ * requests while a simulated main thread answers them, as the system would. Reports throughput,
+ * monitor contention, lost and duplicated callbacks and callback latency percentiles, and exits
+ * with a non zero status when any callback was lost or called twice.
+ * <p>
+ * Options, as <code>name=value</code> arguments: <code>threads</code>, <code>requests</code> (per
+ * thread), <code>codes</code> (distinct request codes), <code>permissions</code> (distinct
+ * permissions, up to 16), <code>batch</code> (batch window in milliseconds, -1 disabled),
+ * <code>timeout</code> (seconds to wait for the results).
+ */
+public final class StressHarness {
+
+    private final int mThreads;
+    private final int mRequests;
+    private final int mCodes;
+    private final String[][] mPermissionSets;
+    private final long mBatchWindow;
+    private final long mTimeoutSeconds;
+
+    private final ScheduledExecutorService mMainThread;
+    private final PermissionEngine mEngine;
+    private final ThreadMXBean mThreadBean;
+
+    private final AtomicInteger mFired = new AtomicInteger();
+    private final AtomicInteger mDuplicates = new AtomicInteger();
+    private final AtomicLong mBlockedCount = new AtomicLong();
+    private final AtomicLong mBlockedMillis = new AtomicLong();
+    private long[] mLatencies;
+    private CountDownLatch mDone;
+
+    private StressHarness(int threads, int requests, int codes, int permissions, long batchWindow, long timeoutSeconds) {
+        mThreads = threads;
+        mRequests = requests;
+        mCodes = codes;
+        mBatchWindow = batchWindow;
+        mTimeoutSeconds = timeoutSeconds;
+        mPermissionSets = permissionSets(Math.min(permissions, SimulatedBackend.PERMISSIONS.length));
+        mMainThread = Executors.newSingleThreadScheduledExecutor();
+        final SimulatedBackend backend = new SimulatedBackend(mMainThread);
+        mEngine = new PermissionEngine(backend);
+        backend.mEngine = mEngine;
+        mThreadBean = ManagementFactory.getThreadMXBean();
+        if (mThreadBean.isThreadContentionMonitoringSupported()) {
+            mThreadBean.setThreadContentionMonitoringEnabled(true);
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        int threads = 8;
+        int requests = 10000;
+        int codes = 16;
+        int permissions = 8;
+        long batchWindow = PermissionEngine.BATCH_DISABLED;
+        long timeout = 60;
+        for (String arg : args) {
+            final int split = arg.indexOf('=');
+            if (split < 0) {
+                throw new IllegalArgumentException(String.format("Expected name=value, got %s", arg));
+            }
+            final String name = arg.substring(0, split);
+            final long value = Long.parseLong(arg.substring(split + 1));
+            switch (name) {
+                case "threads":
+                    threads = (int) value;
+                    break;
+                case "requests":
+                    requests = (int) value;
+                    break;
+                case "codes":
+                    codes = (int) value;
+                    break;
+                case "permissions":
+                    permissions = (int) value;
+                    break;
+                case "batch":
+                    batchWindow = value;
+                    break;
+                case "timeout":
+                    timeout = value;
+                    break;
+                default:
+                    throw new IllegalArgumentException(String.format("Unknown option %s", name));
+            }
+        }
+
+        final boolean passed = new StressHarness(threads, requests, codes, permissions, batchWindow, timeout).run();
+        System.exit(passed ? 0 : 1);
+    }
+
+    /**
+     * @return <code>true</code> when every callback was called exactly once
+     */
+    private boolean run() throws InterruptedException {
+        final int total = mThreads * mRequests;
+        mLatencies = new long[total];
+        mDone = new CountDownLatch(total);
+        mEngine.setBatchWindow(mBatchWindow);
+        // engine metrics are only recorded with a listener
+        mEngine.setMetricsListener(new PermissionMetrics.Listener() {
+            @Override
+            public void onRequestCompleted(int requestCode, long latencyNanos) {
+            }
+
+            @Override
+            public void onPromptAnswered(int prompt, boolean accepted, long durationNanos) {
+            }
+
+            @Override
+            public void onDispatch(int requestCode, int callbacks, int pendingRequests) {
+            }
+
+            @Override
+            public void onRequestCoalesced(int requestCode) {
+            }
+
+            @Override
+            public void onRequestDropped(int requestCode) {
+            }
+        });
+
+        final CountDownLatch start = new CountDownLatch(1);
+        final Thread[] workers = new Thread[mThreads];
+        for (int t = 0; t < mThreads; t++) {
+            final int worker = t;
+            workers[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    makeRequests(worker);
+                }
+            }, "stress-" + t);
+            workers[t].start();
+        }
+
+        final long startNanos = System.nanoTime();
+        start.countDown();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        final boolean completed = mDone.await(mTimeoutSeconds, TimeUnit.SECONDS);
+        final long elapsedNanos = System.nanoTime() - startNanos;
+
+        // main thread contention, from the main thread itself
+        mMainThread.submit(new Runnable() {
+            @Override
+            public void run() {
+                recordContention();
+            }
+        });
+        mMainThread.shutdown();
+        mMainThread.awaitTermination(mTimeoutSeconds, TimeUnit.SECONDS);
+
+        final int lost = total - mFired.get();
+        report(total, elapsedNanos, lost);
+        if (!completed) {
+            System.out.println(String.format("Timed out after %d s waiting for the results", mTimeoutSeconds));
+        }
+        return lost == 0 && mDuplicates.get() == 0;
+    }
+
+    private void makeRequests(int worker) {
+        final Random random = new Random(worker);
+        for (int i = 0; i < mRequests; i++) {
+            final int requestCode = 1 + random.nextInt(mCodes);
+            final String[] permissions = mPermissionSets[random.nextInt(mPermissionSets.length)];
+            mEngine.request(new RecordingCallback(worker * mRequests + i), null, requestCode, permissions, null, null, 0);
+        }
+        recordContention();
+    }
+
+    private void recordContention() {
+        final ThreadInfo info = mThreadBean.getThreadInfo(Thread.currentThread().getId());
+        if (info != null) {
+            mBlockedCount.addAndGet(info.getBlockedCount());
+            // -1 when contention monitoring is not supported
+            mBlockedMillis.addAndGet(Math.max(0, info.getBlockedTime()));
+        }
+    }
+
+    private void report(int total, long elapsedNanos, int lost) {
+        final int fired = mFired.get();
+        final long[] latencies = Arrays.copyOf(mLatencies, total);
+        Arrays.sort(latencies);
+        // lost callbacks have no latency, skip them
+        final long[] recorded = Arrays.copyOfRange(latencies, total - fired, total);
+
+        final PermissionMetrics.Snapshot metrics = mEngine.getMetricsSnapshot();
+        System.out.println(String.format("threads=%d requests=%d (%d per thread) codes=%d permissionSets=%d batch=%d",
+                mThreads, total, mRequests, mCodes, mPermissionSets.length, mBatchWindow));
+        System.out.println(String.format("throughput      %.0f callbacks/s", fired / (elapsedNanos / 1e9)));
+        System.out.println(String.format("contention      %d blocked, %d ms blocked", mBlockedCount.get(), mBlockedMillis.get()));
+        System.out.println(String.format("callbacks       %d fired, %d lost, %d duplicated", fired, lost, mDuplicates.get()));
+        System.out.println(String.format("latency (us)    p50=%d p99=%d p999=%d max=%d",
+                percentile(recorded, 0.5), percentile(recorded, 0.99), percentile(recorded, 0.999),
+                percentile(recorded, 1)));
+        System.out.println(String.format("engine          %d coalesced, %d dropped, %d max pending",
+                metrics.getCoalescedRequests(), metrics.getDroppedRequests(), metrics.getMaxPendingRequests()));
+    }
+
+    private static long percentile(long[] sorted, double percentile) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        final int index = (int) Math.ceil(percentile * sorted.length) - 1;
+        return TimeUnit.NANOSECONDS.toMicros(sorted[Math.max(0, index)]);
+    }
+
+    private static String[][] permissionSets(int permissions) {
+        // every non empty subset of the first permissions, up to 64 of them
+        final int count = Math.min((1 << permissions) - 1, 64);
+        final String[][] sets = new String[count][];
+        for (int i = 0; i < count; i++) {
+            final int bits = i + 1;
+            sets[i] = new String[Integer.bitCount(bits)];
+            int index = 0;
+            for (int p = 0; p < permissions; p++) {
+                if ((bits & (1 << p)) != 0) {
+                    sets[i][index++] = SimulatedBackend.PERMISSIONS[p];
+                }
+            }
+        }
+        return sets;
+    }
+
+    /**
+     * Callback that records its latency, and whether it was called more than once
+     */
+    private final class RecordingCallback implements AllowMeCallback {
+        private final int mIndex;
+        private final long mStartNanos = System.nanoTime();
+        private final AtomicInteger mCalls = new AtomicInteger();
+
+        RecordingCallback(int index) {
+            mIndex = index;
+        }
+
+        @Override
+        public void onPermissionResult(int requestCode, PermissionResultSet results) {
+            if (mCalls.incrementAndGet() > 1) {
+                mDuplicates.incrementAndGet();
+                return;
+            }
+            mLatencies[mIndex] = System.nanoTime() - mStartNanos;
+            mFired.incrementAndGet();
+            mDone.countDown();
+        }
+    }
+
+    /**
+     * Permission backend whose system dialog is answered on the main thread right away, granting
+     * each permission at random. Permissions are never reported as granted up front and denied ones
+     * can still be asked for, so every request reaches the system.
+     */
+    private static final class SimulatedBackend implements PermissionBackend {
+
+        static final String[] PERMISSIONS = {
+                "android.permission.READ_CALENDAR", "android.permission.WRITE_CALENDAR",
+                "android.permission.CAMERA", "android.permission.READ_CONTACTS",
+                "android.permission.WRITE_CONTACTS", "android.permission.GET_ACCOUNTS",
+                "android.permission.ACCESS_FINE_LOCATION", "android.permission.ACCESS_COARSE_LOCATION",
+                "android.permission.RECORD_AUDIO", "android.permission.READ_PHONE_STATE",
+                "android.permission.CALL_PHONE", "android.permission.READ_CALL_LOG",
+                "android.permission.WRITE_CALL_LOG", "android.permission.BODY_SENSORS",
+                "android.permission.SEND_SMS", "android.permission.READ_EXTERNAL_STORAGE"
+        };
+
+        private final ScheduledExecutorService mMainThread;
+        private final Random mRandom = new Random();
+        private PermissionEngine mEngine;
+
+        SimulatedBackend(ScheduledExecutorService mainThread) {
+            mMainThread = mainThread;
+        }
+
+        @Override
+        public boolean isPermissionGranted(@NonNull String permission) {
+            return false;
+        }
+
+        @Override
+        public boolean isAttached() {
+            return true;
+        }
+
+        @Override
+        public boolean shouldShowRationale(@NonNull String permission) {
+            return true;
+        }
+
+        @Override
+        public long queryState(@NonNull PermissionSet permissions) {
+            return 0;
+        }
+
+        @Override
+        public String getPermissionGroup(@NonNull String permission) {
+            return null;
+        }
+
+        @Override
+        public boolean requestPermissions(@NonNull final String[] permissions, final int requestCode) {
+            mMainThread.execute(new Runnable() {
+                @Override
+                public void run() {
+                    final int[] grantResults = new int[permissions.length];
+                    for (int i = 0; i < grantResults.length; i++) {
+                        grantResults[i] = mRandom.nextBoolean()
+                                ? PermissionResultSet.PERMISSION_GRANTED
+                                : PermissionResultSet.PERMISSION_DENIED;
+                    }
+                    mEngine.dispatchResult(requestCode, permissions, grantResults);
+                }
+            });
+            return true;
+        }
+
+        @Override
+        public void showPrompt(int prompt,
+                               @NonNull String[] permissions,
+                               @NonNull PromptMessage message,
+                               int themeId,
+                               @NonNull PromptListener listener) {
+            listener.onPromptAnswered(true);
+        }
+
+        @Override
+        public void postDelayed(@NonNull Runnable task, long delayMillis) {
+            mMainThread.schedule(task, delayMillis, TimeUnit.MILLISECONDS);
+        }
+
+        @Override
+        public long uptimeMillis() {
+            return TimeUnit.NANOSECONDS.toMillis(System.nanoTime());
+        }
+    }
+}
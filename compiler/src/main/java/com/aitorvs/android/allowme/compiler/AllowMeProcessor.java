@@ -0,0 +1,252 @@
+package com.aitorvs.android.allowme.compiler;
+
+/*
+ * Copyright (C) 17/10/26 aitorvs
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.Filer;
+import javax.annotation.processing.Messager;
+import javax.annotation.processing.ProcessingEnvironment;
+import javax.annotation.processing.RoundEnvironment;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.AnnotationValue;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.util.Elements;
+import javax.tools.Diagnostic;
+import javax.tools.JavaFileObject;
+
+/**
+ * Generates a <code>PermissionResultDispatcher</code> for every class declaring
+ * <code>OnPermissionResult</code> annotated methods, so results are dispatched without reflection.
+ * Handler methods with a wrong signature are reported as build errors.
+ */
+public class AllowMeProcessor extends AbstractProcessor {
+
+    static final String PACKAGE = "com.aitorvs.android.allowme";
+    static final String ANNOTATION = PACKAGE + ".OnPermissionResult";
+    static final String RESULT_SET = PACKAGE + ".PermissionResultSet";
+    static final String DISPATCHER = PACKAGE + ".PermissionResultDispatcher";
+    static final String SUFFIX = "$$PermissionResultDispatcher";
+
+    private Elements mElements;
+    private Filer mFiler;
+    private Messager mMessager;
+
+    @Override
+    public synchronized void init(ProcessingEnvironment processingEnv) {
+        super.init(processingEnv);
+        mElements = processingEnv.getElementUtils();
+        mFiler = processingEnv.getFiler();
+        mMessager = processingEnv.getMessager();
+    }
+
+    @Override
+    public Set<String> getSupportedAnnotationTypes() {
+        return Collections.singleton(ANNOTATION);
+    }
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        TypeElement annotation = mElements.getTypeElement(ANNOTATION);
+        if (annotation == null) {
+            return false;
+        }
+
+        // group the handler methods by their declaring class
+        Map<TypeElement, HandlerClass> handlers = new LinkedHashMap<>();
+        for (Element element : roundEnv.getElementsAnnotatedWith(annotation)) {
+            ExecutableElement method = (ExecutableElement) element;
+            TypeElement enclosing = (TypeElement) method.getEnclosingElement();
+            if (!isValid(method, enclosing)) {
+                continue;
+            }
+
+            HandlerClass handlerClass = handlers.get(enclosing);
+            if (handlerClass == null) {
+                handlerClass = new HandlerClass(enclosing);
+                handlers.put(enclosing, handlerClass);
+            }
+
+            String[] permissions = getRequestedPermissions(method);
+            String key = Arrays.toString(permissions);
+            if (handlerClass.methods.containsKey(key)) {
+                error(method, "Permission set %s is already handled by %s.%s()", key,
+                        enclosing.getQualifiedName(), handlerClass.methods.get(key).getSimpleName());
+                continue;
+            }
+            handlerClass.methods.put(key, method);
+            handlerClass.permissions.put(key, permissions);
+        }
+
+        for (HandlerClass handlerClass : handlers.values()) {
+            try {
+                write(handlerClass);
+            } catch (IOException e) {
+                error(handlerClass.type, "Unable to write dispatcher for %s: %s",
+                        handlerClass.type.getQualifiedName(), e.getMessage());
+            }
+        }
+
+        return true;
+    }
+
+    private boolean isValid(ExecutableElement method, TypeElement enclosing) {
+        boolean valid = true;
+        Set<Modifier> modifiers = method.getModifiers();
+        if (modifiers.contains(Modifier.PRIVATE) || modifiers.contains(Modifier.STATIC)) {
+            error(method, "@OnPermissionResult method %s must not be private or static", method.getSimpleName());
+            valid = false;
+        }
+
+        List<? extends VariableElement> parameters = method.getParameters();
+        if (parameters.size() != 2
+                || parameters.get(0).asType().getKind() != TypeKind.INT
+                || !parameters.get(1).asType().toString().equals(RESULT_SET)) {
+            error(method, "Method %s shall have two parameters of type 'int' and 'PermissionResultSet'",
+                    method.getSimpleName());
+            valid = false;
+        }
+
+        if (!method.getThrownTypes().isEmpty()) {
+            error(method, "@OnPermissionResult method %s must not declare thrown exceptions", method.getSimpleName());
+            valid = false;
+        }
+
+        if (enclosing.getKind() != ElementKind.CLASS
+                || enclosing.getModifiers().contains(Modifier.PRIVATE)
+                || (enclosing.getNestingKind().isNested() && !enclosing.getModifiers().contains(Modifier.STATIC))) {
+            error(method, "@OnPermissionResult methods must be declared in a non-private top-level or static nested class");
+            valid = false;
+        }
+
+        return valid;
+    }
+
+    private String[] getRequestedPermissions(ExecutableElement method) {
+        for (AnnotationMirror mirror : method.getAnnotationMirrors()) {
+            if (!mirror.getAnnotationType().toString().equals(ANNOTATION)) {
+                continue;
+            }
+            for (Map.Entry<? extends ExecutableElement, ? extends AnnotationValue> entry
+                    : mirror.getElementValues().entrySet()) {
+                if (entry.getKey().getSimpleName().contentEquals("requestedPermissions")) {
+                    @SuppressWarnings("unchecked")
+                    List<? extends AnnotationValue> values = (List<? extends AnnotationValue>) entry.getValue().getValue();
+                    String[] permissions = new String[values.size()];
+                    for (int i = 0; i < permissions.length; i++) {
+                        permissions[i] = (String) values.get(i).getValue();
+                    }
+                    // the runtime looks handlers up with sorted permissions
+                    Arrays.sort(permissions);
+                    return permissions;
+                }
+            }
+        }
+        return new String[0];
+    }
+
+    private void write(HandlerClass handlerClass) throws IOException {
+        TypeElement type = handlerClass.type;
+        String packageName = mElements.getPackageOf(type).getQualifiedName().toString();
+        String targetName = type.getQualifiedName().toString();
+        String binaryName = mElements.getBinaryName(type).toString();
+        String simpleName = (packageName.isEmpty() ? binaryName : binaryName.substring(packageName.length() + 1)) + SUFFIX;
+
+        JavaFileObject file = mFiler.createSourceFile(binaryName + SUFFIX, type);
+        try (Writer writer = file.openWriter()) {
+            writer.write("// Generated code from AllowMe. Do not modify!\n");
+            if (!packageName.isEmpty()) {
+                writer.write("package " + packageName + ";\n\n");
+            }
+            writer.write("public final class " + simpleName + " implements " + DISPATCHER + "<" + targetName + "> {\n");
+
+            writer.write("    private static final String[][] PERMISSIONS = {\n");
+            for (String[] permissions : handlerClass.permissions.values()) {
+                writer.write("            {");
+                for (int i = 0; i < permissions.length; i++) {
+                    writer.write((i > 0 ? ", " : "") + quote(permissions[i]));
+                }
+                writer.write("},\n");
+            }
+            writer.write("    };\n\n");
+
+            writer.write("    @Override\n");
+            writer.write("    public int findHandler(String[] sortedPermissions) {\n");
+            writer.write("        for (int i = 0; i < PERMISSIONS.length; i++) {\n");
+            writer.write("            if (java.util.Arrays.equals(PERMISSIONS[i], sortedPermissions)) {\n");
+            writer.write("                return i;\n");
+            writer.write("            }\n");
+            writer.write("        }\n");
+            writer.write("        return -1;\n");
+            writer.write("    }\n\n");
+
+            writer.write("    @Override\n");
+            writer.write("    public void dispatch(" + targetName + " target, int handler, int requestCode, "
+                    + RESULT_SET + " results) {\n");
+            writer.write("        switch (handler) {\n");
+            int handler = 0;
+            for (ExecutableElement method : handlerClass.methods.values()) {
+                writer.write("            case " + handler++ + ":\n");
+                writer.write("                target." + method.getSimpleName() + "(requestCode, results);\n");
+                writer.write("                break;\n");
+            }
+            writer.write("            default:\n");
+            writer.write("                throw new IllegalArgumentException(\"Unknown handler \" + handler);\n");
+            writer.write("        }\n");
+            writer.write("    }\n");
+            writer.write("}\n");
+        }
+    }
+
+    private static String quote(String value) {
+        return "\"" + value.replace("\\", "\\\\").replace("\"", "\\\"") + "\"";
+    }
+
+    private void error(Element element, String message, Object... args) {
+        mMessager.printMessage(Diagnostic.Kind.ERROR, String.format(message, args), element);
+    }
+
+    private static final class HandlerClass {
+        final TypeElement type;
+        final Map<String, ExecutableElement> methods = new LinkedHashMap<>();
+        final Map<String, String[]> permissions = new LinkedHashMap<>();
+
+        HandlerClass(TypeElement type) {
+            this.type = type;
+        }
+    }
+}
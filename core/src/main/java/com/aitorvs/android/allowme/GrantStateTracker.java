@@ -0,0 +1,107 @@
+package com.aitorvs.android.allowme;
+
+/*
+ * Copyright (C) 17/10/26 aitorvs
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import android.support.annotation.NonNull;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Diffs successive grant state snapshots and fans the changes out to the subscribers, so a single
+ * snapshot serves them all instead of each one polling the system.
+ * <p>
+ * A snapshot is a pair of permission set masks: the permissions it checked and those of them that
+ * were granted. Only permissions checked by both snapshots are diffed, permissions seen for the
+ * first time just set their baseline. Subscribers are notified on the thread publishing the
+ * snapshot, and only when the permissions they subscribed to changed.
+ */
+final class GrantStateTracker {
+
+    private final CopyOnWriteArrayList<Subscription> mSubscriptions = new CopyOnWriteArrayList<>();
+    // guarded by this
+    private long mKnown;
+    private long mGranted;
+
+    /**
+     * @param permissions permissions to watch, <code>null</code> for all
+     * @param listener    listener
+     * @return <code>true</code> when it is the first subscriber, the baseline has to be set again
+     */
+    synchronized boolean subscribe(PermissionSet permissions, @NonNull PermissionChangeListener listener) {
+        final boolean first = mSubscriptions.isEmpty();
+        mSubscriptions.add(new Subscription(permissions != null ? permissions.getMask() : -1L, listener));
+        return first;
+    }
+
+    synchronized void unsubscribe(@NonNull PermissionChangeListener listener) {
+        for (Subscription subscription : mSubscriptions) {
+            if (subscription.mListener == listener) {
+                mSubscriptions.remove(subscription);
+            }
+        }
+    }
+
+    boolean hasSubscribers() {
+        return !mSubscriptions.isEmpty();
+    }
+
+    /**
+     * Drops the previous snapshot, the next one becomes the baseline
+     */
+    synchronized void reset() {
+        mKnown = 0;
+        mGranted = 0;
+    }
+
+    /**
+     * Publishes a grant state snapshot, notifying the subscribers of the changes since the previous
+     * one
+     *
+     * @param known   permission set mask of the checked permissions
+     * @param granted permission set mask of the granted permissions
+     * @return the changes, <code>null</code> when nothing changed
+     */
+    PermissionChanges publish(long known, long granted) {
+        final long changed;
+        synchronized (this) {
+            changed = (mGranted ^ granted) & mKnown & known;
+            mKnown |= known;
+            mGranted = (mGranted & ~known) | (granted & known);
+        }
+        if (changed == 0) {
+            return null;
+        }
+
+        final PermissionChanges changes = new PermissionChanges(changed & granted, changed & ~granted);
+        for (Subscription subscription : mSubscriptions) {
+            if ((subscription.mMask & changed) != 0) {
+                subscription.mListener.onPermissionsChanged(changes);
+            }
+        }
+        return changes;
+    }
+
+    private static final class Subscription {
+        final long mMask;
+        final PermissionChangeListener mListener;
+
+        Subscription(long mask, PermissionChangeListener listener) {
+            mMask = mask;
+            mListener = listener;
+        }
+    }
+}
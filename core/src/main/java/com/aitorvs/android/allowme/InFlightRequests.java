@@ -0,0 +1,248 @@
+package com.aitorvs.android.allowme;
+
+/*
+ * Copyright (C) 17/10/26 aitorvs
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import android.support.annotation.NonNull;
+
+import java.util.Arrays;
+
+/**
+ * Single flight bookkeeping of the system permission requests. At most one system request is
+ * outstanding per permission: a request for permissions already in flight, under any request code,
+ * waits for that result instead of prompting again. Results are split back to every waiting
+ * request as they arrive, and a request completes once all its permissions are resolved.
+ * <p>
+ * Not thread safe, guarded by the engine batch lock.
+ */
+final class InFlightRequests {
+
+    // system requests sent and not answered yet
+    private int[] mFlightCodes = new int[4];
+    private long[] mFlightMasks = new long[4];
+    private int mFlights;
+    private long mPermissions;
+
+    // requests waiting for results
+    private int[] mCodes = new int[8];
+    private long[] mMasks = new long[8];
+    private long[] mUnresolved = new long[8];
+    private long[] mGranted = new long[8];
+    private int mWaiters;
+
+    /**
+     * @return union of the permission sets of the system requests in flight
+     */
+    long getPermissions() {
+        return mPermissions;
+    }
+
+    /**
+     * Registers a system request sent
+     *
+     * @param requestCode request code of the system request
+     * @param permissions permission set mask sent
+     */
+    void addFlight(int requestCode, long permissions) {
+        if (mFlights == mFlightCodes.length) {
+            mFlightCodes = Arrays.copyOf(mFlightCodes, mFlights * 2);
+            mFlightMasks = Arrays.copyOf(mFlightMasks, mFlights * 2);
+        }
+        mFlightCodes[mFlights] = requestCode;
+        mFlightMasks[mFlights] = permissions;
+        mFlights++;
+        mPermissions |= permissions;
+    }
+
+    /**
+     * @param requestCode request code of the system request
+     * @param permissions permission set mask sent
+     * @return <code>true</code> when the system request is in flight
+     */
+    boolean hasFlight(int requestCode, long permissions) {
+        return indexOfFlight(requestCode, permissions) >= 0;
+    }
+
+    /**
+     * @param requestCode request code of the system request
+     * @param permissions permission set mask sent
+     * @return <code>true</code> when the system request was in flight
+     */
+    boolean removeFlight(int requestCode, long permissions) {
+        final int index = indexOfFlight(requestCode, permissions);
+        if (index < 0) {
+            return false;
+        }
+        removeFlightAt(index);
+        return true;
+    }
+
+    /**
+     * @param requestCode request code of the system request
+     * @return permission set mask of the oldest system request in flight with the given code,
+     * <code>0</code> when none
+     */
+    long findFlight(int requestCode) {
+        for (int i = 0; i < mFlights; i++) {
+            if (mFlightCodes[i] == requestCode) {
+                return mFlightMasks[i];
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Registers a request waiting for the results of its permissions
+     *
+     * @param requestCode request code identifier
+     * @param permissions permission set mask
+     * @param resolved    permission set mask of the permissions resolved up front
+     * @param granted     permission set mask of the resolved permissions that are granted
+     */
+    void await(int requestCode, long permissions, long resolved, long granted) {
+        if (mWaiters == mCodes.length) {
+            final int capacity = mWaiters * 2;
+            mCodes = Arrays.copyOf(mCodes, capacity);
+            mMasks = Arrays.copyOf(mMasks, capacity);
+            mUnresolved = Arrays.copyOf(mUnresolved, capacity);
+            mGranted = Arrays.copyOf(mGranted, capacity);
+        }
+        mCodes[mWaiters] = requestCode;
+        mMasks[mWaiters] = permissions;
+        mUnresolved[mWaiters] = permissions & ~resolved;
+        mGranted[mWaiters] = granted;
+        mWaiters++;
+    }
+
+    /**
+     * @param requestCode request code identifier
+     * @param permissions permission set mask
+     * @return <code>true</code> when the request is waiting for the results of a system request
+     * in flight
+     */
+    boolean isAwaitingFlight(int requestCode, long permissions) {
+        for (int i = 0; i < mWaiters; i++) {
+            if (mCodes[i] == requestCode && mMasks[i] == permissions) {
+                return (mUnresolved[i] & mPermissions) != 0;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Forgets a waiting request, along with the system requests nobody waits for anymore
+     *
+     * @param requestCode request code identifier
+     * @param permissions permission set mask
+     */
+    void detach(int requestCode, long permissions) {
+        for (int i = 0; i < mWaiters; i++) {
+            if (mCodes[i] == requestCode && mMasks[i] == permissions) {
+                removeWaiterAt(i);
+                break;
+            }
+        }
+
+        long unresolved = 0;
+        for (int i = 0; i < mWaiters; i++) {
+            unresolved |= mUnresolved[i];
+        }
+        for (int i = mFlights - 1; i >= 0; i--) {
+            if ((mFlightMasks[i] & unresolved) == 0) {
+                removeFlightAt(i);
+            }
+        }
+    }
+
+    /**
+     * Resolves the results of a system request in flight
+     *
+     * @param requestCode request code of the system request
+     * @param permissions permission set mask of the results
+     * @param granted     permission set mask of the granted permissions
+     * @param completed   batch the requests completed are added to, with their granted permissions
+     * @return <code>false</code> when the results don't belong to a system request in flight
+     */
+    boolean resolve(int requestCode, long permissions, long granted, @NonNull RequestBatch completed) {
+        if (!removeFlight(requestCode, permissions)) {
+            return false;
+        }
+
+        for (int i = 0; i < mWaiters; ) {
+            if ((mUnresolved[i] & permissions) != 0) {
+                mUnresolved[i] &= ~permissions;
+                mGranted[i] |= granted & mMasks[i];
+                if (mUnresolved[i] == 0) {
+                    completed.add(mCodes[i], mMasks[i], mGranted[i]);
+                    removeWaiterAt(i);
+                    continue;
+                }
+            }
+            i++;
+        }
+        return true;
+    }
+
+    /**
+     * Forgets a system request that won't be answered, along with the requests left waiting for
+     * permissions nobody is asking for
+     *
+     * @param requestCode request code of the system request
+     * @param permissions permission set mask sent
+     * @param pending     permission set mask of the permissions still to be sent
+     * @param aborted     batch the requests left without an answer are added to
+     */
+    void abort(int requestCode, long permissions, long pending, @NonNull RequestBatch aborted) {
+        removeFlight(requestCode, permissions);
+
+        final long covered = mPermissions | pending;
+        for (int i = 0; i < mWaiters; ) {
+            if ((mUnresolved[i] & ~covered) != 0) {
+                aborted.add(mCodes[i], mMasks[i], mGranted[i]);
+                removeWaiterAt(i);
+            } else {
+                i++;
+            }
+        }
+    }
+
+    private int indexOfFlight(int requestCode, long permissions) {
+        for (int i = 0; i < mFlights; i++) {
+            if (mFlightCodes[i] == requestCode && mFlightMasks[i] == permissions) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private void removeFlightAt(int index) {
+        mFlights--;
+        System.arraycopy(mFlightCodes, index + 1, mFlightCodes, index, mFlights - index);
+        System.arraycopy(mFlightMasks, index + 1, mFlightMasks, index, mFlights - index);
+        mPermissions = 0;
+        for (int i = 0; i < mFlights; i++) {
+            mPermissions |= mFlightMasks[i];
+        }
+    }
+
+    private void removeWaiterAt(int index) {
+        mWaiters--;
+        System.arraycopy(mCodes, index + 1, mCodes, index, mWaiters - index);
+        System.arraycopy(mMasks, index + 1, mMasks, index, mWaiters - index);
+        System.arraycopy(mUnresolved, index + 1, mUnresolved, index, mWaiters - index);
+        System.arraycopy(mGranted, index + 1, mGranted, index, mWaiters - index);
+    }
+}
@@ -0,0 +1,96 @@
+package com.aitorvs.android.allowme;
+
+/*
+ * Copyright (C) 17/10/26 aitorvs
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import android.support.annotation.NonNull;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+/**
+ * Runs tasks on a delegate executor, keeping the tasks of the same key in submission order.
+ * Tasks of different keys may run concurrently.
+ */
+final class OrderedDispatcher {
+
+    private final Executor mExecutor;
+    private final Map<Integer, ArrayDeque<Runnable>> mQueues = new HashMap<>();
+
+    OrderedDispatcher(@NonNull Executor executor) {
+        mExecutor = executor;
+    }
+
+    void execute(int key, @NonNull Runnable task) {
+        final ArrayDeque<Runnable> queue;
+        synchronized (mQueues) {
+            final ArrayDeque<Runnable> running = mQueues.get(key);
+            if (running != null) {
+                // a task of the same key is running, it will pick this one up
+                running.add(task);
+                return;
+            }
+            queue = new ArrayDeque<>();
+            queue.add(task);
+            mQueues.put(key, queue);
+        }
+
+        schedule(key, queue);
+    }
+
+    private void schedule(final int key, final ArrayDeque<Runnable> queue) {
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                drain(key, queue);
+            }
+        });
+    }
+
+    private void drain(int key, ArrayDeque<Runnable> queue) {
+        boolean drained = false;
+        try {
+            while (true) {
+                final Runnable task;
+                synchronized (mQueues) {
+                    task = queue.poll();
+                    if (task == null) {
+                        mQueues.remove(key);
+                        drained = true;
+                        return;
+                    }
+                }
+                task.run();
+            }
+        } finally {
+            if (!drained) {
+                // a task threw, errors included, keep the queue going
+                final boolean pending;
+                synchronized (mQueues) {
+                    pending = !queue.isEmpty();
+                    if (!pending) {
+                        mQueues.remove(key);
+                    }
+                }
+                if (pending) {
+                    schedule(key, queue);
+                }
+            }
+        }
+    }
+}
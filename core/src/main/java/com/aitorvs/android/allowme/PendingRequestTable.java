@@ -0,0 +1,279 @@
+package com.aitorvs.android.allowme;
+
+/*
+ * Copyright (C) 17/10/26 aitorvs
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.util.ArrayList;
+
+/**
+ * Pending permission requests, keyed by request code and permission set mask.
+ * <p>
+ * Open addressing table over primitive keys with linear probing. Callback lists are recycled, so
+ * a request/dispatch round trip does not allocate once the table is warm.
+ */
+final class PendingRequestTable {
+
+    private static final int INITIAL_CAPACITY = 8;
+    private static final int MAX_POOLED_LISTS = 8;
+
+    private int[] mCodes;
+    private long[] mMasks;
+    private CallbackList[] mValues;
+    private int mSize;
+
+    private final CallbackList[] mPool = new CallbackList[MAX_POOLED_LISTS];
+    private int mPoolSize;
+
+    PendingRequestTable() {
+        allocate(INITIAL_CAPACITY);
+    }
+
+    /**
+     * Adds a callback for the given request
+     *
+     * @param requestCode request code identifier
+     * @param permissions permission set mask
+     * @param callback    callback, <code>null</code> to only register the request
+     * @return <code>true</code> when this is the first callback of the request, meaning the request
+     * is not in flight yet
+     */
+    boolean add(int requestCode, long permissions, @Nullable AllowMeCallback callback) {
+        int index = indexOf(requestCode, permissions);
+        if (index >= 0) {
+            if (callback != null) {
+                mValues[index].add(callback);
+            }
+            return false;
+        }
+
+        if ((mSize + 1) * 2 > mValues.length) {
+            resize(mValues.length * 2);
+            index = indexOf(requestCode, permissions);
+        }
+
+        final CallbackList callbacks = obtain();
+        callbacks.mRequestCode = requestCode;
+        callbacks.mPermissions = permissions;
+        if (callback != null) {
+            callbacks.add(callback);
+        }
+        index = -index - 1;
+        mCodes[index] = requestCode;
+        mMasks[index] = permissions;
+        mValues[index] = callbacks;
+        mSize++;
+        return true;
+    }
+
+    /**
+     * @param requestCode request code identifier
+     * @param permissions permission set mask
+     * @return callbacks registered for the request, <code>null</code> when none
+     */
+    @Nullable
+    CallbackList get(int requestCode, long permissions) {
+        final int index = indexOf(requestCode, permissions);
+        return index >= 0 ? mValues[index] : null;
+    }
+
+    /**
+     * Removes the given request from the table. The returned list shall be given back through
+     * {@link #recycle(CallbackList)} once the callbacks are called.
+     *
+     * @param requestCode request code identifier
+     * @param permissions permission set mask
+     * @return callbacks registered for the request, <code>null</code> when none
+     */
+    @Nullable
+    CallbackList take(int requestCode, long permissions) {
+        final int index = indexOf(requestCode, permissions);
+        if (index < 0) {
+            return null;
+        }
+
+        final CallbackList callbacks = mValues[index];
+        removeAt(index);
+        return callbacks;
+    }
+
+    /**
+     * Collects all the pending requests
+     *
+     * @param out list the requests are added to
+     */
+    void collectAll(@NonNull ArrayList<CallbackList> out) {
+        for (CallbackList callbacks : mValues) {
+            if (callbacks != null) {
+                out.add(callbacks);
+            }
+        }
+    }
+
+    void recycle(@NonNull CallbackList callbacks) {
+        callbacks.clear();
+        if (mPoolSize < mPool.length) {
+            mPool[mPoolSize++] = callbacks;
+        }
+    }
+
+    int size() {
+        return mSize;
+    }
+
+    /**
+     * @return slot index of the key when found, <code>-(insertion slot) - 1</code> otherwise
+     */
+    private int indexOf(int requestCode, long permissions) {
+        final int mask = mValues.length - 1;
+        int index = hash(requestCode, permissions) & mask;
+        while (mValues[index] != null) {
+            if (mCodes[index] == requestCode && mMasks[index] == permissions) {
+                return index;
+            }
+            index = (index + 1) & mask;
+        }
+        return -index - 1;
+    }
+
+    private void removeAt(int index) {
+        final int mask = mValues.length - 1;
+        mValues[index] = null;
+        mSize--;
+
+        // shift back the following entries of the probe sequence so lookups don't stop early
+        int next = (index + 1) & mask;
+        while (mValues[next] != null) {
+            final int home = hash(mCodes[next], mMasks[next]) & mask;
+            if (((next - home) & mask) >= ((next - index) & mask)) {
+                mCodes[index] = mCodes[next];
+                mMasks[index] = mMasks[next];
+                mValues[index] = mValues[next];
+                mValues[next] = null;
+                index = next;
+            }
+            next = (next + 1) & mask;
+        }
+    }
+
+    private void resize(int capacity) {
+        final int[] codes = mCodes;
+        final long[] masks = mMasks;
+        final CallbackList[] values = mValues;
+        allocate(capacity);
+        for (int i = 0; i < values.length; i++) {
+            if (values[i] != null) {
+                final int index = -indexOf(codes[i], masks[i]) - 1;
+                mCodes[index] = codes[i];
+                mMasks[index] = masks[i];
+                mValues[index] = values[i];
+            }
+        }
+    }
+
+    private void allocate(int capacity) {
+        mCodes = new int[capacity];
+        mMasks = new long[capacity];
+        mValues = new CallbackList[capacity];
+    }
+
+    private CallbackList obtain() {
+        if (mPoolSize > 0) {
+            final CallbackList callbacks = mPool[--mPoolSize];
+            mPool[mPoolSize] = null;
+            return callbacks;
+        }
+        return new CallbackList();
+    }
+
+    static int hash(int requestCode, long permissions) {
+        long h = permissions * 31 + requestCode;
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        return (int) h;
+    }
+
+    /**
+     * Growable array of callbacks, reused across requests. Holds as well the
+     * {@link PermissionFuture} shared by all awaiters of the request, if any, and its eviction
+     * timeout.
+     */
+    static final class CallbackList extends TimerWheel.Node {
+        private AllowMeCallback[] mItems = new AllowMeCallback[2];
+        private int mSize;
+        private PermissionFuture<PermissionResultSet> mFuture;
+        private long mStartNanos;
+        private int mRequestCode;
+        private long mPermissions;
+
+        int getRequestCode() {
+            return mRequestCode;
+        }
+
+        long getPermissions() {
+            return mPermissions;
+        }
+
+        /**
+         * @return time the request was started, see {@link PermissionMetrics#now()}
+         */
+        long getStartNanos() {
+            return mStartNanos;
+        }
+
+        void setStartNanos(long startNanos) {
+            mStartNanos = startNanos;
+        }
+
+        @Nullable
+        PermissionFuture<PermissionResultSet> getFuture() {
+            return mFuture;
+        }
+
+        void setFuture(@Nullable PermissionFuture<PermissionResultSet> future) {
+            mFuture = future;
+        }
+
+        void add(@NonNull AllowMeCallback callback) {
+            if (mSize == mItems.length) {
+                AllowMeCallback[] items = new AllowMeCallback[mSize * 2];
+                System.arraycopy(mItems, 0, items, 0, mSize);
+                mItems = items;
+            }
+            mItems[mSize++] = callback;
+        }
+
+        AllowMeCallback get(int index) {
+            return mItems[index];
+        }
+
+        int size() {
+            return mSize;
+        }
+
+        void clear() {
+            for (int i = 0; i < mSize; i++) {
+                mItems[i] = null;
+            }
+            mSize = 0;
+            mFuture = null;
+            mStartNanos = 0;
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package com.aitorvs.android.allowme;
+
+/*
+ * Copyright (C) 17/10/26 aitorvs
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import android.support.annotation.NonNull;
+
+/**
+ * Interned permission handle. There is a single instance per permission name, so handles can be
+ * compared by identity, and each carries the dense identifier the library keys its state with.
+ */
+public final class Permission {
+
+    private final String mName;
+    private final int mId;
+
+    Permission(@NonNull String name, int id) {
+        mName = name;
+        mId = id;
+    }
+
+    /**
+     * Returns the handle of the given permission
+     *
+     * @param permission permission name
+     * @return {@link Permission} handle
+     * @throws IllegalStateException when the permission is not declared in the manifest
+     */
+    @NonNull
+    public static Permission of(@NonNull String permission) {
+        PermissionRegistry.requireDeclared(permission);
+        return PermissionRegistry.handleOf(permission);
+    }
+
+    @NonNull
+    public String getName() {
+        return mName;
+    }
+
+    /**
+     * @return dense identifier of the permission, stable while the process lives
+     */
+    public int getId() {
+        return mId;
+    }
+
+    @Override
+    public int hashCode() {
+        return mId;
+    }
+
+    @Override
+    public String toString() {
+        return mName;
+    }
+}
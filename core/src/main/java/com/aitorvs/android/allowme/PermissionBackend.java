@@ -0,0 +1,115 @@
+package com.aitorvs.android.allowme;
+
+/*
+ * Copyright (C) 17/10/26 aitorvs
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+/**
+ * Platform the {@link PermissionEngine} runs its permission requests against. The Android
+ * implementation talks to the registered activity, other implementations let the engine run on a
+ * plain JVM.
+ * <p>
+ * Methods are called from whichever thread requests the permissions, implementations must move
+ * any UI work to their UI thread.
+ */
+public interface PermissionBackend {
+
+    /**
+     * Receives the answer of a prompt
+     */
+    interface PromptListener {
+        /**
+         * @param accepted <code>true</code> when the user accepted to go on with the request
+         */
+        void onPromptAnswered(boolean accepted);
+    }
+
+    /**
+     * @param permission permission
+     * @return <code>true</code> when the permission is granted
+     */
+    boolean isPermissionGranted(@NonNull String permission);
+
+    /**
+     * @return <code>true</code> when the backend is attached to the platform and can answer
+     * {@link #shouldShowRationale(String)}, ie. an activity is registered
+     */
+    boolean isAttached();
+
+    /**
+     * @param permission permission
+     * @return <code>true</code> when the request rationale should be shown for the permission
+     */
+    boolean shouldShowRationale(@NonNull String permission);
+
+    /**
+     * Queries the grant and rationale state of all the permissions of the set in a single pass
+     *
+     * @param permissions permission set
+     * @return state of the set, as described in {@link PermissionSet}
+     */
+    long queryState(@NonNull PermissionSet permissions);
+
+    /**
+     * @param permission permission
+     * @return platform group of the permission, <code>null</code> when it has none or is unknown
+     */
+    @Nullable
+    String getPermissionGroup(@NonNull String permission);
+
+    /**
+     * Asks the system for the permissions. Results are delivered back through
+     * {@link PermissionEngine#dispatchResult(int, String[], int[])}.
+     *
+     * @param permissions permissions to request
+     * @param requestCode request code identifier
+     * @return <code>false</code> when the permissions can't be requested right now, ie. no activity
+     * is registered
+     */
+    boolean requestPermissions(@NonNull String[] permissions, int requestCode);
+
+    /**
+     * Shows a priming or rationale message to the user. Implementations may answer the prompt
+     * along with another one of the same kind already on screen for the same permissions, instead
+     * of showing it again.
+     *
+     * @param prompt      {@link PermissionMetrics#PROMPT_PRIMING} or {@link PermissionMetrics#PROMPT_RATIONALE}
+     * @param permissions permissions the prompt is about
+     * @param message     message, resolved when shown
+     * @param themeId     prompt theme identifier, <code>0</code> for the default theme
+     * @param listener    called once the user answers
+     */
+    void showPrompt(int prompt,
+                    @NonNull String[] permissions,
+                    @NonNull PromptMessage message,
+                    int themeId,
+                    @NonNull PromptListener listener);
+
+    /**
+     * Runs the task on the UI thread after the given delay
+     *
+     * @param task        task
+     * @param delayMillis delay in milliseconds, <code>0</code> for the next loop turn
+     */
+    void postDelayed(@NonNull Runnable task, long delayMillis);
+
+    /**
+     * @return monotonic clock, in milliseconds
+     */
+    long uptimeMillis();
+}
@@ -0,0 +1,29 @@
+package com.aitorvs.android.allowme;
+
+/*
+ * Copyright (C) 17/10/26 aitorvs
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * Receives the permission grant state changes, see {@link PermissionChanges}
+ */
+public interface PermissionChangeListener {
+    /**
+     * Grant state of some of the subscribed permissions changed since last seen
+     *
+     * @param changes permissions granted and revoked since then
+     */
+    void onPermissionsChanged(PermissionChanges changes);
+}
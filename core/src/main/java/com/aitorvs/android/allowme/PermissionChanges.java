@@ -0,0 +1,105 @@
+package com.aitorvs.android.allowme;
+
+/*
+ * Copyright (C) 17/10/26 aitorvs
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import android.support.annotation.NonNull;
+
+import java.util.Arrays;
+
+/**
+ * Permissions whose grant state changed between two snapshots, e.g. granted by the user in the
+ * Settings app while the app was in background. Kept as bit sets over the
+ * {@link PermissionRegistry} permission identifiers, so queries don't allocate.
+ */
+public final class PermissionChanges {
+
+    private final long mGranted;
+    private final long mRevoked;
+
+    PermissionChanges(long granted, long revoked) {
+        mGranted = granted;
+        mRevoked = revoked;
+    }
+
+    /**
+     * @param permission permission handle
+     * @return <code>true</code> when the permission was granted since last seen
+     */
+    public boolean wasGranted(@NonNull Permission permission) {
+        return (mGranted & bit(permission.getId())) != 0;
+    }
+
+    public boolean wasGranted(@NonNull String permission) {
+        return (mGranted & bit(PermissionRegistry.find(permission))) != 0;
+    }
+
+    /**
+     * @param permission permission handle
+     * @return <code>true</code> when the permission was revoked since last seen
+     */
+    public boolean wasRevoked(@NonNull Permission permission) {
+        return (mRevoked & bit(permission.getId())) != 0;
+    }
+
+    public boolean wasRevoked(@NonNull String permission) {
+        return (mRevoked & bit(PermissionRegistry.find(permission))) != 0;
+    }
+
+    /**
+     * @return the permissions granted since last seen, in permission identifier order
+     */
+    @NonNull
+    public String[] getGranted() {
+        return namesOf(mGranted);
+    }
+
+    /**
+     * @return the permissions revoked since last seen, in permission identifier order
+     */
+    @NonNull
+    public String[] getRevoked() {
+        return namesOf(mRevoked);
+    }
+
+    long getGrantedMask() {
+        return mGranted;
+    }
+
+    long getRevokedMask() {
+        return mRevoked;
+    }
+
+    private static String[] namesOf(long mask) {
+        final String[] names = new String[Long.bitCount(mask)];
+        int count = 0;
+        for (long bits = mask; bits != 0; bits &= bits - 1) {
+            names[count++] = PermissionRegistry.nameOf(Long.numberOfTrailingZeros(bits));
+        }
+        return names;
+    }
+
+    private static long bit(int id) {
+        // permissions never seen are neither granted nor revoked
+        return id >= 0 ? PermissionRegistry.bitOf(id) : 0;
+    }
+
+    @Override
+    public String toString() {
+        return "PermissionChanges{granted=" + Arrays.toString(getGranted())
+                + ", revoked=" + Arrays.toString(getRevoked()) + "}";
+    }
+}
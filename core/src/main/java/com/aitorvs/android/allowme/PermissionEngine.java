@@ -0,0 +1,962 @@
+package com.aitorvs.android.allowme;
+
+/*
+ * Copyright (C) 17/10/26 aitorvs
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Platform free permission request engine: keeps the pending requests, coalesces them and
+ * dispatches their results. Everything platform specific goes through the {@link PermissionBackend},
+ * so the engine runs headless on a plain JVM.
+ * <p>
+ * At most one system request is outstanding per permission: requests for permissions already in
+ * flight, under any request code, wait for that result and receive it under their own code.
+ * <p>
+ * Thread safe. Pending requests and their timeouts are spread over lock stripes by request key,
+ * batches and requests in flight have a lock of their own, taken after the stripe lock when both
+ * are needed, and the backend is never called with a lock held.
+ */
+public final class PermissionEngine {
+
+    /**
+     * Request code of the system permission requests that coalesce several batched requests.
+     * Do not use it as a request code of your own. Fits in the lower 8 bits, the only ones a
+     * <code>FragmentActivity</code> accepts.
+     */
+    public static final int BATCH_REQUEST_CODE = 0xA1;
+    /**
+     * Batch window value to send every request to the system right away (default)
+     */
+    public static final long BATCH_DISABLED = -1;
+    /**
+     * Batch window value to coalesce all requests made until the next loop turn
+     */
+    public static final long BATCH_NEXT_FRAME = 0;
+    /**
+     * Default time after which a pending request without result is evicted
+     */
+    public static final long DEFAULT_REQUEST_TIMEOUT = 5 * 60 * 1000;
+    /**
+     * Request state of a permission never requested, or not requested since the process started
+     */
+    public static final int STATE_NEVER_ASKED = 0;
+    /**
+     * Request state of a granted permission
+     */
+    public static final int STATE_GRANTED = 1;
+    /**
+     * Request state of a denied permission that can be requested again
+     */
+    public static final int STATE_DENIED = 2;
+    /**
+     * Request state of a permission denied for good, the system denies any further request right
+     * away, without asking the user
+     */
+    public static final int STATE_DENIED_FOREVER = 3;
+
+    // power of two, at most 16: stripes are picked from the top 4 bits of the request key hash
+    private static final int STRIPES = 16;
+    private static final int TIMEOUT_WHEEL_SLOTS = 64;
+    private static final long TIMEOUT_WHEEL_TICK = 1000;
+
+    private static final Executor DIRECT_EXECUTOR = new Executor() {
+        @Override
+        public void execute(@NonNull Runnable command) {
+            command.run();
+        }
+    };
+
+    // reused by each thread dispatching results, so dispatching doesn't allocate
+    private static final ThreadLocal<RequestBatch> SCRATCH_BATCH = new ThreadLocal<>();
+
+    private final PermissionBackend mBackend;
+    private final RequestPlanner mPlanner;
+    private final PendingRequestTable[] mStripes;
+    // timeouts of the requests of each stripe, guarded by the stripe
+    private final TimerWheel[] mTimeouts;
+    private final AtomicBoolean mTicking = new AtomicBoolean();
+    private final AtomicInteger mPendingRequests = new AtomicInteger();
+    private final Object mBatchLock = new Object();
+    // guarded by mBatchLock
+    private final InFlightRequests mInFlight;
+    private RequestBatch mPendingBatch;
+    private volatile long mBatchWindow = BATCH_DISABLED;
+    private volatile OrderedDispatcher mDispatcher;
+    private final PermissionMetrics mMetrics;
+    private final PermissionStateStore mStates;
+    private volatile long mRequestTimeout = DEFAULT_REQUEST_TIMEOUT;
+
+    private final Runnable mFlushBatch = new Runnable() {
+        @Override
+        public void run() {
+            flushBatch();
+        }
+    };
+
+    private final Runnable mEvictExpired = new Runnable() {
+        @Override
+        public void run() {
+            evictExpired();
+        }
+    };
+
+    public PermissionEngine(@NonNull PermissionBackend backend) {
+        this(backend, new PermissionMetrics(), new PermissionStateStore());
+    }
+
+    /**
+     * @param backend backend
+     * @param metrics metrics, shared with other engines
+     * @param states  permission request states, shared with other engines
+     */
+    PermissionEngine(@NonNull PermissionBackend backend,
+                     @NonNull PermissionMetrics metrics,
+                     @NonNull PermissionStateStore states) {
+        mBackend = backend;
+        mPlanner = new RequestPlanner(backend);
+        mStripes = new PendingRequestTable[STRIPES];
+        mTimeouts = new TimerWheel[STRIPES];
+        for (int i = 0; i < STRIPES; i++) {
+            mStripes[i] = new PendingRequestTable();
+            mTimeouts[i] = new TimerWheel(TIMEOUT_WHEEL_SLOTS, TIMEOUT_WHEEL_TICK);
+        }
+        mInFlight = new InFlightRequests();
+        mMetrics = metrics;
+        mStates = states;
+    }
+
+    @NonNull
+    public PermissionBackend getBackend() {
+        return mBackend;
+    }
+
+    /**
+     * @param permission permission
+     * @return <code>true</code> when the permission is already granted
+     */
+    public boolean isPermissionGranted(@NonNull String permission) {
+        return mBackend.isPermissionGranted(permission);
+    }
+
+    /**
+     * @param permission permission
+     * @return <code>true</code> when the request rationale should be shown for the permission,
+     * answered from the request results seen so far when possible
+     */
+    public boolean shouldShowRationale(@NonNull String permission) {
+        if (mBackend.isPermissionGranted(permission)) {
+            mStates.set(PermissionRegistry.idOf(permission), STATE_GRANTED);
+            return false;
+        }
+        return shouldShowRationale(PermissionRegistry.idOf(permission), permission);
+    }
+
+    /**
+     * @param permission permission
+     * @return request state of the permission, {@link #STATE_NEVER_ASKED}, {@link #STATE_GRANTED},
+     * {@link #STATE_DENIED} or {@link #STATE_DENIED_FOREVER}
+     */
+    public int getPermissionState(@NonNull String permission) {
+        final int id = PermissionRegistry.idOf(permission);
+        if (mBackend.isPermissionGranted(permission)) {
+            mStates.set(id, STATE_GRANTED);
+            return STATE_GRANTED;
+        }
+
+        final int state = mStates.get(id);
+        if (state == STATE_GRANTED) {
+            // revoked meanwhile, it can be asked again
+            mStates.set(id, STATE_DENIED);
+            return STATE_DENIED;
+        }
+        return state;
+    }
+
+    /**
+     * Queries the grant and rationale state of all the permissions of the set in a single pass
+     *
+     * @param permissions permission set
+     * @return state of the set, read it with the {@link PermissionSet} methods
+     */
+    public long queryState(@NonNull PermissionSet permissions) {
+        return mBackend.queryState(permissions);
+    }
+
+    /**
+     * Coalesces the permission requests made within the given time window into a single system
+     * permission request. Each callback still receives its own request code and only the results
+     * of the permissions it asked for.
+     *
+     * @param windowMillis {@link #BATCH_NEXT_FRAME} to batch until the next loop turn,
+     *                     a positive number of milliseconds, or {@link #BATCH_DISABLED}
+     */
+    public void setBatchWindow(long windowMillis) {
+        mBatchWindow = windowMillis;
+    }
+
+    /**
+     * Sets the executor the {@link AllowMeCallback}s are called on. Callbacks of the same request
+     * code are still called in order.
+     *
+     * @param executor callback executor, <code>null</code> to call them from
+     *                 {@link #dispatchResult(int, String[], int[])}
+     */
+    public void setDispatchExecutor(@Nullable Executor executor) {
+        mDispatcher = executor != null ? new OrderedDispatcher(executor) : null;
+    }
+
+    /**
+     * Sets the time after which a pending request that got no result is evicted, along with its
+     * callbacks. Its {@link PermissionFuture}, if any, is cancelled.
+     *
+     * @param timeoutMillis timeout in milliseconds, <code>0</code> to never evict requests
+     */
+    public void setPendingRequestTimeout(long timeoutMillis) {
+        mRequestTimeout = timeoutMillis;
+    }
+
+    /**
+     * @param listener {@link PermissionMetrics.Listener}, <code>null</code> to stop recording
+     */
+    public void setMetricsListener(@Nullable PermissionMetrics.Listener listener) {
+        mMetrics.setListener(listener);
+    }
+
+    /**
+     * @return point in time copy of the permission request metrics
+     */
+    @NonNull
+    public PermissionMetrics.Snapshot getMetricsSnapshot() {
+        return mMetrics.snapshot();
+    }
+
+    /**
+     * Evicts all the pending requests, cancelling their futures
+     */
+    public void evictAll() {
+        final ArrayList<PendingRequestTable.CallbackList> evicted = new ArrayList<>();
+        for (int s = 0; s < STRIPES; s++) {
+            synchronized (mStripes[s]) {
+                final int from = evicted.size();
+                mStripes[s].collectAll(evicted);
+                for (int i = from; i < evicted.size(); i++) {
+                    remove(s, evicted.get(i));
+                }
+            }
+        }
+
+        for (PendingRequestTable.CallbackList callbacks : evicted) {
+            evict(callbacks);
+        }
+    }
+
+    /**
+     * Sends the batched requests that were waiting for the backend to be able to request them
+     */
+    public void resume() {
+        synchronized (mBatchLock) {
+            if (mPendingBatch != null) {
+                mBackend.postDelayed(mFlushBatch, 0);
+            }
+        }
+    }
+
+    /**
+     * Requests the permissions, showing the priming and rationale messages first when given
+     *
+     * @param callback       callback, may be <code>null</code>
+     * @param future         {@link PermissionFuture} to complete, may be <code>null</code>
+     * @param requestCode    request code identifier
+     * @param permissions    permissions to request
+     * @param primingMessage priming message to show, <code>null</code> for none
+     * @param rationale      rationale to show when appropriate, <code>null</code> for none
+     * @param themeId        prompts theme identifier
+     */
+    public void request(@Nullable AllowMeCallback callback,
+                        @Nullable PermissionFuture<PermissionResultSet> future,
+                        int requestCode,
+                        @NonNull String[] permissions,
+                        @Nullable PromptMessage primingMessage,
+                        @Nullable PromptMessage rationale,
+                        int themeId) {
+        final long startNanos = mMetrics.now();
+        mMetrics.onRequest();
+
+        if (primingMessage != null) {
+            showPrompt(PermissionMetrics.PROMPT_PRIMING, primingMessage, themeId,
+                    callback, future, requestCode, permissions, rationale, 0, startNanos);
+        } else {
+            requestPermission(callback, future, requestCode, permissions, rationale, themeId, startNanos);
+        }
+    }
+
+    /**
+     * Same as {@link #request(AllowMeCallback, PermissionFuture, int, String[], PromptMessage, PromptMessage, int)},
+     * returning a handle to the result. Each awaiter of the same pending request gets a handle of
+     * its own, completed along with the others.
+     *
+     * @return {@link PermissionFuture} completed with the request results
+     */
+    @NonNull
+    public PermissionFuture<PermissionResultSet> requestAsync(int requestCode,
+                                                              @NonNull String[] permissions,
+                                                              @Nullable PromptMessage primingMessage,
+                                                              @Nullable PromptMessage rationale,
+                                                              int themeId) {
+        // join the request if already pending
+        final PermissionFuture<PermissionResultSet> pending = pendingFuture(requestCode, permissions);
+        if (pending != null) {
+            return pending;
+        }
+
+        final PermissionFuture<PermissionResultSet> future = new PermissionFuture<>();
+        request(null, future, requestCode, permissions, primingMessage, rationale, themeId);
+        return future;
+    }
+
+    /**
+     * @return a new {@link PermissionFuture} completed with the results of the given request, when
+     * the request is pending and awaited already
+     */
+    @Nullable
+    PermissionFuture<PermissionResultSet> pendingFuture(int requestCode, @NonNull String[] permissions) {
+        final long permissionSet = PermissionRegistry.maskOf(permissions);
+        final int s = stripeOf(requestCode, permissionSet);
+        final PermissionFuture<PermissionResultSet> shared;
+        synchronized (mStripes[s]) {
+            final PendingRequestTable.CallbackList request = mStripes[s].get(requestCode, permissionSet);
+            shared = request != null ? request.getFuture() : null;
+        }
+        if (shared == null) {
+            return null;
+        }
+        final PermissionFuture<PermissionResultSet> future = new PermissionFuture<>();
+        follow(shared, future);
+        return future;
+    }
+
+    /**
+     * Completes the future along with the shared one. Cancelling the future leaves the shared one
+     * untouched.
+     */
+    private static <V> void follow(final PermissionFuture<V> shared, final PermissionFuture<V> future) {
+        shared.addListener(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    future.complete(shared.get());
+                } catch (ExecutionException e) {
+                    future.completeExceptionally(e.getCause());
+                } catch (Exception e) {
+                    future.cancel(false);
+                }
+            }
+        }, DIRECT_EXECUTOR);
+    }
+
+    /**
+     * @return <code>true</code> when the given results belong to a request of this engine
+     */
+    boolean expects(int requestCode, @NonNull String[] permissions) {
+        final long permissionSet = PermissionRegistry.maskOf(permissions);
+        synchronized (mBatchLock) {
+            final boolean inFlight = permissions.length == 0
+                    ? mInFlight.findFlight(requestCode) != 0
+                    : mInFlight.hasFlight(requestCode, permissionSet);
+            if (inFlight) {
+                return true;
+            }
+        }
+        final int s = stripeOf(requestCode, permissionSet);
+        synchronized (mStripes[s]) {
+            return mStripes[s].get(requestCode, permissionSet) != null;
+        }
+    }
+
+    /**
+     * @return number of pending requests
+     */
+    int getPendingRequests() {
+        return mPendingRequests.get();
+    }
+
+    /**
+     * Dispatches the permission request results to the request callbacks. Every request waiting
+     * for any of these permissions gets its share of the results, once all its permissions are
+     * resolved. Empty results, as sent when the system request is interrupted, drop the requests
+     * waiting for it.
+     *
+     * @param requestCode  permission request code
+     * @param permissions  permissions
+     * @param grantResults request results, {@link PermissionResultSet#PERMISSION_GRANTED} or
+     *                     {@link PermissionResultSet#PERMISSION_DENIED}
+     * @return <code>true</code> when the results belonged to a pending request
+     */
+    public boolean dispatchResult(int requestCode, @NonNull String[] permissions, @NonNull int[] grantResults) {
+        final long permissionSet = PermissionRegistry.maskOf(permissions);
+        long granted = 0;
+        for (int i = 0; i < permissions.length; i++) {
+            if (grantResults[i] == PermissionResultSet.PERMISSION_GRANTED) {
+                granted |= PermissionRegistry.bitOf(permissions[i]);
+            }
+        }
+
+        updateStates(permissions, granted);
+
+        final RequestBatch requests = obtainBatch();
+        try {
+            final boolean aborted;
+            final boolean resolved;
+            synchronized (mBatchLock) {
+                final long flight = permissions.length == 0 ? mInFlight.findFlight(requestCode) : 0;
+                aborted = flight != 0;
+                if (aborted) {
+                    mInFlight.abort(requestCode, flight, pendingPermissions(), requests);
+                }
+                resolved = permissions.length != 0
+                        && mInFlight.resolve(requestCode, permissionSet, granted, requests);
+            }
+
+            // callbacks are called out of the locks
+            if (aborted) {
+                drop(requests);
+                return true;
+            }
+            if (resolved) {
+                for (int i = 0; i < requests.size(); i++) {
+                    final PendingRequestTable.CallbackList callbacks = take(requests.getRequestCode(i), requests.getPermissions(i));
+                    if (callbacks != null) {
+                        dispatch(callbacks, requests.getRequestCode(i),
+                                PermissionResultSet.of(requests.getPermissions(i), requests.getGranted(i)));
+                    }
+                }
+                return true;
+            }
+        } finally {
+            recycleBatch(requests);
+        }
+
+        // get all registered callbacks for the request
+        final PendingRequestTable.CallbackList callbacks = take(requestCode, permissionSet);
+        if (callbacks != null) {
+            dispatch(callbacks, requestCode, PermissionResultSet.create(permissions, grantResults));
+            return true;
+        }
+
+        // no callback called
+        mMetrics.onRequestDropped(requestCode);
+        return false;
+    }
+
+    /**
+     * Records the request state of the permissions of a result. A denied permission whose
+     * rationale is not to be shown anymore was denied for good. Without an activity to ask, it is
+     * only recorded as denied.
+     */
+    private void updateStates(String[] permissions, long granted) {
+        // empty results, e.g. of an interrupted dialog, say nothing about the permissions
+        if (permissions.length == 0) {
+            return;
+        }
+        final boolean attached = mBackend.isAttached();
+        for (String permission : permissions) {
+            final int id = PermissionRegistry.idOf(permission);
+            if ((granted & PermissionRegistry.bitOf(permission)) != 0) {
+                mStates.set(id, STATE_GRANTED);
+            } else if (attached && !mBackend.shouldShowRationale(permission)) {
+                mStates.set(id, STATE_DENIED_FOREVER);
+            } else {
+                mStates.set(id, STATE_DENIED);
+            }
+        }
+    }
+
+    /**
+     * Calls the callbacks of a request on the dispatch executor
+     */
+    private void dispatch(final PendingRequestTable.CallbackList callbacks,
+                          final int requestCode,
+                          final PermissionResultSet resultSet) {
+        if (mMetrics.isEnabled()) {
+            mMetrics.onRequestCompleted(requestCode, callbacks.getStartNanos(),
+                    callbacks.size() + (callbacks.getFuture() != null ? 1 : 0), resultSet);
+        }
+
+        final OrderedDispatcher dispatcher = mDispatcher;
+        if (dispatcher == null) {
+            runCallbacks(callbacks, requestCode, resultSet);
+        } else {
+            dispatcher.execute(requestCode, new Runnable() {
+                @Override
+                public void run() {
+                    runCallbacks(callbacks, requestCode, resultSet);
+                }
+            });
+        }
+    }
+
+    private void runCallbacks(PendingRequestTable.CallbackList callbacks, int requestCode, PermissionResultSet resultSet) {
+        try {
+            for (int i = 0; i < callbacks.size(); i++) {
+                callbacks.get(i).onPermissionResult(requestCode, resultSet);
+            }
+
+            final PermissionFuture<PermissionResultSet> future = callbacks.getFuture();
+            if (future != null) {
+                future.complete(resultSet);
+            }
+        } finally {
+            // request already removed from the queue, reuse its callback list
+            recycle(callbacks);
+        }
+    }
+
+    /**
+     * @return permission set mask of the batched permissions not sent yet, must be called holding
+     * the batch lock
+     */
+    private long pendingPermissions() {
+        return mPendingBatch != null ? mPendingBatch.getPermissions() : 0;
+    }
+
+    private static int stripeOf(int requestCode, long permissionSet) {
+        return PendingRequestTable.hash(requestCode, permissionSet) >>> 28;
+    }
+
+    /**
+     * Takes a request out of the queue
+     *
+     * @return the request callbacks, <code>null</code> when not pending
+     */
+    private PendingRequestTable.CallbackList take(int requestCode, long permissionSet) {
+        final int s = stripeOf(requestCode, permissionSet);
+        synchronized (mStripes[s]) {
+            final PendingRequestTable.CallbackList callbacks = mStripes[s].get(requestCode, permissionSet);
+            if (callbacks != null) {
+                remove(s, callbacks);
+            }
+            return callbacks;
+        }
+    }
+
+    /**
+     * Removes a pending request, must be called holding the stripe lock
+     */
+    private void remove(int stripe, PendingRequestTable.CallbackList callbacks) {
+        mStripes[stripe].take(callbacks.getRequestCode(), callbacks.getPermissions());
+        mTimeouts[stripe].cancel(callbacks);
+        mPendingRequests.decrementAndGet();
+        mMetrics.onPendingRequests(-1);
+    }
+
+    private void recycle(PendingRequestTable.CallbackList callbacks) {
+        final int s = stripeOf(callbacks.getRequestCode(), callbacks.getPermissions());
+        synchronized (mStripes[s]) {
+            mStripes[s].recycle(callbacks);
+        }
+    }
+
+    /**
+     * Shows a prompt, going on with the request once accepted and dropping it otherwise
+     */
+    private void showPrompt(final int prompt,
+                            PromptMessage message,
+                            final int themeId,
+                            final AllowMeCallback callback,
+                            final PermissionFuture<PermissionResultSet> future,
+                            final int requestCode,
+                            final String[] permissions,
+                            final PromptMessage rationale,
+                            final long granted,
+                            final long startNanos) {
+        final long shownNanos = mMetrics.now();
+        mBackend.showPrompt(prompt, permissions, message, themeId, new PermissionBackend.PromptListener() {
+            @Override
+            public void onPromptAnswered(boolean accepted) {
+                mMetrics.onPromptAnswered(prompt, accepted, shownNanos);
+                if (!accepted) {
+                    mMetrics.onRequestDropped(requestCode);
+                    if (future != null) {
+                        future.cancel(false);
+                    }
+                } else if (prompt == PermissionMetrics.PROMPT_PRIMING) {
+                    requestPermission(callback, future, requestCode, permissions, rationale, themeId, startNanos);
+                } else {
+                    requestPermissions(callback, future, requestCode, permissions, granted, startNanos);
+                }
+            }
+        });
+    }
+
+    /**
+     * Requests the permissions that are not granted yet, showing the rationale when appropriate
+     */
+    private void requestPermission(AllowMeCallback callback,
+                                   PermissionFuture<PermissionResultSet> future,
+                                   int requestCode,
+                                   String[] permissions,
+                                   PromptMessage rationale,
+                                   int themeId,
+                                   long startNanos) {
+        final long permissionSet = PermissionRegistry.maskOf(permissions);
+        final long granted = mPlanner.grantedOf(permissions);
+        mStates.setAll(granted, STATE_GRANTED);
+        final long deniedForever = mStates.deniedForeverOf(permissionSet & ~granted);
+        if ((granted | deniedForever) == permissionSet) {
+            // permission is already granted...why you ask? or the system would deny it right away
+            complete(callback, future, requestCode, permissions, granted, startNanos);
+        } else if (rationale != null && shouldShowRationale(permissions, granted | deniedForever)) {
+            showPrompt(PermissionMetrics.PROMPT_RATIONALE, rationale, themeId,
+                    callback, future, requestCode, permissions, null, granted, startNanos);
+        } else {
+            requestPermissions(callback, future, requestCode, permissions, granted, startNanos);
+        }
+    }
+
+    /**
+     * @param skipped permission set mask of the permissions to skip
+     * @return <code>true</code> when the rationale should be shown for any of the permissions
+     */
+    private boolean shouldShowRationale(String[] permissions, long skipped) {
+        for (String permission : permissions) {
+            final int id = PermissionRegistry.idOf(permission);
+            if ((skipped & PermissionRegistry.bitOf(permission)) == 0 && shouldShowRationale(id, permission)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Answers from the permission state once known, the backend is only asked otherwise
+     */
+    private boolean shouldShowRationale(int id, String permission) {
+        switch (mStates.get(id)) {
+            case STATE_DENIED:
+                return true;
+            case STATE_DENIED_FOREVER:
+                return false;
+            default:
+                return mBackend.shouldShowRationale(permission);
+        }
+    }
+
+    /**
+     * Completes a request whose permissions are all resolved, either granted or denied for good,
+     * with a synthetic result, without asking the system
+     */
+    private void complete(final AllowMeCallback callback,
+                          PermissionFuture<PermissionResultSet> future,
+                          final int requestCode,
+                          String[] permissions,
+                          long granted,
+                          long startNanos) {
+        final int[] grantResults = new int[permissions.length];
+        for (int i = 0; i < permissions.length; i++) {
+            grantResults[i] = (granted & PermissionRegistry.bitOf(permissions[i])) != 0
+                    ? PermissionResultSet.PERMISSION_GRANTED
+                    : PermissionResultSet.PERMISSION_DENIED;
+        }
+        final PermissionResultSet results = PermissionResultSet.create(permissions, grantResults);
+        if (mMetrics.isEnabled()) {
+            mMetrics.onRequestCompleted(requestCode, startNanos,
+                    (callback != null ? 1 : 0) + (future != null ? 1 : 0), results);
+        }
+
+        if (callback != null) {
+            final OrderedDispatcher dispatcher = mDispatcher;
+            if (dispatcher == null) {
+                callback.onPermissionResult(requestCode, results);
+            } else {
+                dispatcher.execute(requestCode, new Runnable() {
+                    @Override
+                    public void run() {
+                        callback.onPermissionResult(requestCode, results);
+                    }
+                });
+            }
+        }
+        if (future != null) {
+            future.complete(results);
+        }
+    }
+
+    private void requestPermissions(AllowMeCallback callback,
+                                    final PermissionFuture<PermissionResultSet> future,
+                                    int requestCode,
+                                    String[] permissions,
+                                    long granted,
+                                    long startNanos) {
+        final long permissionSet = PermissionRegistry.maskOf(permissions);
+        // permissions denied for good are resolved up front, as denied
+        final long resolved = granted | mStates.deniedForeverOf(permissionSet & ~granted);
+        if (resolved == permissionSet) {
+            complete(callback, future, requestCode, permissions, granted, startNanos);
+            return;
+        }
+
+        final long batchWindow = mBatchWindow;
+        final int s = stripeOf(requestCode, permissionSet);
+        final PendingRequestTable.CallbackList request;
+        final boolean inFlight;
+        long needed = 0;
+        boolean flush = false;
+
+        synchronized (mStripes[s]) {
+            inFlight = !mStripes[s].add(requestCode, permissionSet, callback);
+            request = mStripes[s].get(requestCode, permissionSet);
+
+            if (!inFlight) {
+                //noinspection ConstantConditions
+                request.setStartNanos(startNanos);
+                mPendingRequests.incrementAndGet();
+                mMetrics.onPendingRequests(1);
+                scheduleTimeout(s, request);
+
+                synchronized (mBatchLock) {
+                    // granted permissions are left out, and so are the ones other requests are
+                    // already asking for, this request waits for those results instead
+                    needed = permissionSet & ~resolved & ~mInFlight.getPermissions() & ~pendingPermissions();
+                    mInFlight.await(requestCode, permissionSet, resolved, granted);
+                    if (needed != 0 && batchWindow == BATCH_DISABLED) {
+                        mInFlight.addFlight(requestCode, needed);
+                    } else if (needed != 0) {
+                        flush = batchRequest(requestCode, needed);
+                    }
+                }
+            }
+
+            if (future != null) {
+                // the request completes a future of its own, each awaiter follows it with a
+                // handle of its own, so cancelling one doesn't cancel the others
+                //noinspection ConstantConditions
+                PermissionFuture<PermissionResultSet> shared = request.getFuture();
+                if (shared == null) {
+                    shared = new PermissionFuture<>();
+                    request.setFuture(shared);
+                }
+                follow(shared, future);
+            }
+        }
+
+        if (inFlight || needed == 0 || (batchWindow != BATCH_DISABLED && !flush)) {
+            mMetrics.onRequestCoalesced(requestCode);
+        }
+        if (flush) {
+            mBackend.postDelayed(mFlushBatch, batchWindow);
+        }
+        if (inFlight || needed == 0 || batchWindow != BATCH_DISABLED) {
+            return;
+        }
+
+        boolean sent = false;
+        try {
+            sent = mBackend.requestPermissions(mPlanner.plan(needed), requestCode);
+        } finally {
+            if (!sent) {
+                // nobody to ask, forget the request along with the ones waiting for it
+                final RequestBatch aborted = obtainBatch();
+                synchronized (mBatchLock) {
+                    mInFlight.abort(requestCode, needed, pendingPermissions(), aborted);
+                }
+                drop(aborted);
+                recycleBatch(aborted);
+            }
+        }
+        if (!sent) {
+            throw new IllegalStateException("Ooops!! Activity not registered (?)");
+        }
+    }
+
+    /**
+     * @return the batch of the calling thread to collect completed or aborted requests into, or a
+     * new one when it is already in use further up the stack
+     */
+    private static RequestBatch obtainBatch() {
+        final RequestBatch batch = SCRATCH_BATCH.get();
+        if (batch == null) {
+            return new RequestBatch();
+        }
+        SCRATCH_BATCH.set(null);
+        return batch;
+    }
+
+    private static void recycleBatch(RequestBatch batch) {
+        batch.clear();
+        SCRATCH_BATCH.set(batch);
+    }
+
+    /**
+     * Adds the permissions to the pending batch, must be called holding the batch lock
+     *
+     * @return <code>true</code> when a new batch was started and needs its flush scheduled
+     */
+    private boolean batchRequest(int requestCode, long permissionSet) {
+        final boolean started = mPendingBatch == null;
+        if (started) {
+            mPendingBatch = new RequestBatch();
+        }
+        mPendingBatch.add(requestCode, permissionSet, 0);
+        return started;
+    }
+
+    /**
+     * Sends the batched requests to the system as one single permission request
+     */
+    private void flushBatch() {
+        final RequestBatch batch;
+        final int requestCode;
+        synchronized (mBatchLock) {
+            batch = mPendingBatch;
+            if (batch == null) {
+                return;
+            }
+            mPendingBatch = null;
+            requestCode = batch.size() > 1 ? BATCH_REQUEST_CODE : batch.getRequestCode(0);
+            mInFlight.addFlight(requestCode, batch.getPermissions());
+        }
+
+        boolean sent = false;
+        try {
+            sent = mBackend.requestPermissions(mPlanner.plan(batch.getPermissions()), requestCode);
+        } finally {
+            if (!sent) {
+                // flushed again on resume()
+                synchronized (mBatchLock) {
+                    mInFlight.removeFlight(requestCode, batch.getPermissions());
+                    if (mPendingBatch == null) {
+                        mPendingBatch = batch;
+                    } else {
+                        for (int i = 0; i < batch.size(); i++) {
+                            mPendingBatch.add(batch.getRequestCode(i), batch.getPermissions(i), 0);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Schedules the eviction of a new request, must be called holding its stripe lock
+     */
+    private void scheduleTimeout(int stripe, PendingRequestTable.CallbackList request) {
+        final long timeout = mRequestTimeout;
+        if (timeout <= 0) {
+            return;
+        }
+
+        mTimeouts[stripe].schedule(request, mBackend.uptimeMillis(), timeout);
+        if (!mTicking.get() && mTicking.compareAndSet(false, true)) {
+            mBackend.postDelayed(mEvictExpired, TIMEOUT_WHEEL_TICK);
+        }
+    }
+
+    /**
+     * Evicts the pending requests whose timeout has passed, ticking while there are requests left.
+     * Requests waiting for a system request in flight are given another timeout instead: its dialog
+     * may still be on screen, and the user answering it must not find the request gone.
+     */
+    private void evictExpired() {
+        final ArrayList<PendingRequestTable.CallbackList> evicted = new ArrayList<>();
+        final long now = mBackend.uptimeMillis();
+        final long timeout = mRequestTimeout;
+        for (int s = 0; s < STRIPES; s++) {
+            synchronized (mStripes[s]) {
+                TimerWheel.Node node = mTimeouts[s].expire(now);
+                while (node != null) {
+                    final PendingRequestTable.CallbackList callbacks = (PendingRequestTable.CallbackList) node;
+                    node = node.nextExpired();
+                    final boolean awaiting;
+                    synchronized (mBatchLock) {
+                        awaiting = mInFlight.isAwaitingFlight(callbacks.getRequestCode(), callbacks.getPermissions());
+                    }
+                    if (awaiting) {
+                        if (timeout > 0) {
+                            mTimeouts[s].schedule(callbacks, now, timeout);
+                        }
+                        continue;
+                    }
+                    mStripes[s].take(callbacks.getRequestCode(), callbacks.getPermissions());
+                    mPendingRequests.decrementAndGet();
+                    mMetrics.onPendingRequests(-1);
+                    evicted.add(callbacks);
+                }
+            }
+        }
+
+        // stop ticking once idle, a request scheduled meanwhile either sees the flag down or is
+        // seen by the check below
+        mTicking.set(false);
+        if (hasTimeouts() && mTicking.compareAndSet(false, true)) {
+            mBackend.postDelayed(mEvictExpired, TIMEOUT_WHEEL_TICK);
+        }
+
+        for (PendingRequestTable.CallbackList callbacks : evicted) {
+            evict(callbacks);
+        }
+    }
+
+    private boolean hasTimeouts() {
+        for (int s = 0; s < STRIPES; s++) {
+            synchronized (mStripes[s]) {
+                if (!mTimeouts[s].isEmpty()) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Drops a request already removed from the queue, and stops waiting for its results
+     */
+    private void evict(PendingRequestTable.CallbackList callbacks) {
+        synchronized (mBatchLock) {
+            mInFlight.detach(callbacks.getRequestCode(), callbacks.getPermissions());
+        }
+        drop(callbacks);
+    }
+
+    /**
+     * Drops the requests no longer waiting for results
+     */
+    private void drop(RequestBatch requests) {
+        for (int i = 0; i < requests.size(); i++) {
+            final PendingRequestTable.CallbackList callbacks = take(requests.getRequestCode(i), requests.getPermissions(i));
+            if (callbacks != null) {
+                drop(callbacks);
+            }
+        }
+    }
+
+    private void drop(PendingRequestTable.CallbackList callbacks) {
+        mMetrics.onRequestDropped(callbacks.getRequestCode());
+        final PermissionFuture<PermissionResultSet> future = callbacks.getFuture();
+        if (future != null) {
+            future.cancel(false);
+        }
+
+        recycle(callbacks);
+    }
+}
@@ -0,0 +1,230 @@
+package com.aitorvs.android.allowme;
+
+/*
+ * Copyright (C) 17/10/26 aitorvs
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import android.support.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Handle to the result of a permission request. It can be awaited, composed with continuations
+ * that run on a given executor, or cancelled.
+ * <p>
+ * Each awaiter of the same pending request gets a {@link PermissionFuture} of its own, completed
+ * with the same results: cancelling it only affects that awaiter.
+ *
+ * @param <V> result type
+ * @see PermissionEngine#requestAsync(int, String[], PromptMessage, PromptMessage, int)
+ */
+public class PermissionFuture<V> implements Future<V> {
+
+    private static final int PENDING = 0;
+    private static final int SUCCEEDED = 1;
+    private static final int FAILED = 2;
+    private static final int CANCELLED = 3;
+
+    private int mState = PENDING;
+    private V mValue;
+    private Throwable mError;
+    private ArrayList<Runnable> mListeners;
+    private ArrayList<Executor> mExecutors;
+
+    /**
+     * Continuation applied to the result of a {@link PermissionFuture}
+     *
+     * @param <I> input type
+     * @param <O> output type
+     */
+    public interface Function<I, O> {
+        O apply(I input) throws Exception;
+    }
+
+    PermissionFuture() {
+    }
+
+    boolean complete(V value) {
+        return setResult(SUCCEEDED, value, null);
+    }
+
+    boolean completeExceptionally(@NonNull Throwable error) {
+        return setResult(FAILED, null, error);
+    }
+
+    /**
+     * Cancels the request handle. The permission request itself can't be withdrawn once shown to
+     * the user, but its result will be ignored.
+     */
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        return setResult(CANCELLED, null, null);
+    }
+
+    @Override
+    public synchronized boolean isCancelled() {
+        return mState == CANCELLED;
+    }
+
+    @Override
+    public synchronized boolean isDone() {
+        return mState != PENDING;
+    }
+
+    @Override
+    public synchronized V get() throws InterruptedException, ExecutionException {
+        while (mState == PENDING) {
+            wait();
+        }
+        return report();
+    }
+
+    @Override
+    public synchronized V get(long timeout, @NonNull TimeUnit unit)
+            throws InterruptedException, ExecutionException, TimeoutException {
+        final long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (mState == PENDING) {
+            final long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                throw new TimeoutException();
+            }
+            TimeUnit.NANOSECONDS.timedWait(this, remaining);
+        }
+        return report();
+    }
+
+    /**
+     * Runs the listener on the given executor once this future is done. If it is already done, the
+     * listener is run right away.
+     *
+     * @param listener listener
+     * @param executor executor to run the listener on
+     */
+    public void addListener(@NonNull Runnable listener, @NonNull Executor executor) {
+        synchronized (this) {
+            if (mState == PENDING) {
+                if (mListeners == null) {
+                    mListeners = new ArrayList<>(2);
+                    mExecutors = new ArrayList<>(2);
+                }
+                mListeners.add(listener);
+                mExecutors.add(executor);
+                return;
+            }
+        }
+        executor.execute(listener);
+    }
+
+    /**
+     * Returns a new {@link PermissionFuture} completed with the result of applying the function to
+     * the result of this one. Failures and cancellation are propagated.
+     *
+     * @param executor executor the function is run on
+     * @param function continuation
+     * @param <R>      continuation result type
+     * @return {@link PermissionFuture} of the continuation
+     */
+    @NonNull
+    public <R> PermissionFuture<R> thenApply(@NonNull Executor executor,
+                                             @NonNull final Function<? super V, ? extends R> function) {
+        final PermissionFuture<R> next = new PermissionFuture<>();
+        addListener(new Runnable() {
+            @Override
+            public void run() {
+                if (next.isDone()) {
+                    // cancelled
+                    return;
+                }
+                try {
+                    next.complete(function.apply(getDone()));
+                } catch (CancellationException e) {
+                    next.cancel(false);
+                } catch (ExecutionException e) {
+                    next.completeExceptionally(e.getCause());
+                } catch (Throwable t) {
+                    next.completeExceptionally(t);
+                }
+            }
+        }, executor);
+        return next;
+    }
+
+    /**
+     * Returns a new {@link PermissionFuture} completed after running the action once this one
+     * completes successfully. Failures and cancellation are propagated.
+     *
+     * @param executor executor the action is run on
+     * @param action   action
+     * @return {@link PermissionFuture} of the action
+     */
+    @NonNull
+    public PermissionFuture<Void> thenRun(@NonNull Executor executor, @NonNull final Runnable action) {
+        return thenApply(executor, new Function<V, Void>() {
+            @Override
+            public Void apply(V input) {
+                action.run();
+                return null;
+            }
+        });
+    }
+
+    private V getDone() throws ExecutionException {
+        synchronized (this) {
+            return report();
+        }
+    }
+
+    private V report() throws ExecutionException {
+        switch (mState) {
+            case SUCCEEDED:
+                return mValue;
+            case FAILED:
+                throw new ExecutionException(mError);
+            default:
+                throw new CancellationException();
+        }
+    }
+
+    private boolean setResult(int state, V value, Throwable error) {
+        final ArrayList<Runnable> listeners;
+        final ArrayList<Executor> executors;
+        synchronized (this) {
+            if (mState != PENDING) {
+                return false;
+            }
+            mState = state;
+            mValue = value;
+            mError = error;
+            listeners = mListeners;
+            executors = mExecutors;
+            mListeners = null;
+            mExecutors = null;
+            notifyAll();
+        }
+
+        if (listeners != null) {
+            for (int i = 0; i < listeners.size(); i++) {
+                executors.get(i).execute(listeners.get(i));
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,359 @@
+package com.aitorvs.android.allowme;
+
+/*
+ * Copyright (C) 17/10/26 aitorvs
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import android.support.annotation.NonNull;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Permission request metrics, shared by the engines of every activity. Nothing is recorded until a
+ * {@link Listener} is installed through {@link PermissionEngine#setMetricsListener(Listener)},
+ * except the number of pending requests. Counters are lock free.
+ */
+public final class PermissionMetrics {
+
+    /**
+     * Priming message prompt
+     */
+    public static final int PROMPT_PRIMING = 0;
+    /**
+     * Rationale prompt
+     */
+    public static final int PROMPT_RATIONALE = 1;
+
+    /**
+     * Receives the permission request events as they happen
+     */
+    public interface Listener {
+        /**
+         * A request got its result
+         *
+         * @param requestCode  request code
+         * @param latencyNanos time from the request to its result, prompts included
+         */
+        void onRequestCompleted(int requestCode, long latencyNanos);
+
+        /**
+         * User answered a prompt
+         *
+         * @param prompt        {@link #PROMPT_PRIMING} or {@link #PROMPT_RATIONALE}
+         * @param accepted      <code>true</code> when the user accepted to go on with the request
+         * @param durationNanos time the prompt was on screen
+         */
+        void onPromptAnswered(int prompt, boolean accepted, long durationNanos);
+
+        /**
+         * A permission result was dispatched
+         *
+         * @param requestCode     request code
+         * @param callbacks       number of callbacks called, futures included
+         * @param pendingRequests number of requests still pending, in every engine
+         */
+        void onDispatch(int requestCode, int callbacks, int pendingRequests);
+
+        /**
+         * A request was not sent to the system on its own, but joined a request in flight
+         *
+         * @param requestCode request code
+         */
+        void onRequestCoalesced(int requestCode);
+
+        /**
+         * A request or its result was dropped, without reaching any callback
+         *
+         * @param requestCode request code
+         */
+        void onRequestDropped(int requestCode);
+    }
+
+    private volatile Listener mListener;
+
+    private final AtomicLong mRequests = new AtomicLong();
+    private final AtomicLong mCompletedRequests = new AtomicLong();
+    private final AtomicLong mCoalescedRequests = new AtomicLong();
+    private final AtomicLong mDroppedRequests = new AtomicLong();
+    private final AtomicLong mRequestLatencyNanos = new AtomicLong();
+    private final AtomicLong mMaxRequestLatencyNanos = new AtomicLong();
+    private final AtomicLong mPrompts = new AtomicLong();
+    private final AtomicLong mPromptNanos = new AtomicLong();
+    private final AtomicLong mDispatches = new AtomicLong();
+    private final AtomicLong mCallbacksFired = new AtomicLong();
+    private final AtomicLong mPendingRequests = new AtomicLong();
+    private final AtomicLong mMaxPendingRequests = new AtomicLong();
+    private final AtomicLongArray mGranted = new AtomicLongArray(PermissionRegistry.MAX_PERMISSIONS);
+    private final AtomicLongArray mDenied = new AtomicLongArray(PermissionRegistry.MAX_PERMISSIONS);
+
+    PermissionMetrics() {
+    }
+
+    void setListener(Listener listener) {
+        mListener = listener;
+    }
+
+    boolean isEnabled() {
+        return mListener != null;
+    }
+
+    /**
+     * @return current time, or <code>0</code> when metrics are disabled
+     */
+    long now() {
+        return mListener != null ? System.nanoTime() : 0;
+    }
+
+    void onRequest() {
+        if (mListener == null) {
+            return;
+        }
+        mRequests.incrementAndGet();
+    }
+
+    /**
+     * Records a request completion, whether its results came from the system or were known up
+     * front, every completion path goes through here
+     *
+     * @param requestCode request code
+     * @param startNanos  request start time, <code>0</code> when metrics were disabled back then
+     * @param callbacks   number of callbacks and futures completed
+     * @param results     request results
+     */
+    void onRequestCompleted(int requestCode, long startNanos, int callbacks, PermissionResultSet results) {
+        final Listener listener = mListener;
+        if (listener == null) {
+            return;
+        }
+        if (startNanos != 0) {
+            final long latency = System.nanoTime() - startNanos;
+            mCompletedRequests.incrementAndGet();
+            mRequestLatencyNanos.addAndGet(latency);
+            max(mMaxRequestLatencyNanos, latency);
+            listener.onRequestCompleted(requestCode, latency);
+        }
+        onDispatch(listener, requestCode, callbacks, results);
+    }
+
+    void onPromptAnswered(int prompt, boolean accepted, long shownNanos) {
+        final Listener listener = mListener;
+        if (listener == null || shownNanos == 0) {
+            return;
+        }
+        final long duration = System.nanoTime() - shownNanos;
+        mPrompts.incrementAndGet();
+        mPromptNanos.addAndGet(duration);
+        listener.onPromptAnswered(prompt, accepted, duration);
+    }
+
+    private void onDispatch(Listener listener, int requestCode, int callbacks, PermissionResultSet results) {
+        mDispatches.incrementAndGet();
+        mCallbacksFired.addAndGet(callbacks);
+
+        long requested = results.getRequestedMask();
+        final long granted = results.getGrantedMask();
+        while (requested != 0) {
+            final int id = Long.numberOfTrailingZeros(requested);
+            if ((granted & (1L << id)) != 0) {
+                mGranted.incrementAndGet(id);
+            } else {
+                mDenied.incrementAndGet(id);
+            }
+            requested &= requested - 1;
+        }
+        listener.onDispatch(requestCode, callbacks, (int) mPendingRequests.get());
+    }
+
+    /**
+     * Tracks the requests pending in every engine sharing these metrics. Always counted, so the
+     * count is right whenever a listener is installed.
+     *
+     * @param delta change of the number of pending requests
+     */
+    void onPendingRequests(int delta) {
+        final long pending = mPendingRequests.addAndGet(delta);
+        if (delta > 0) {
+            max(mMaxPendingRequests, pending);
+        }
+    }
+
+    void onRequestCoalesced(int requestCode) {
+        final Listener listener = mListener;
+        if (listener == null) {
+            return;
+        }
+        mCoalescedRequests.incrementAndGet();
+        listener.onRequestCoalesced(requestCode);
+    }
+
+    void onRequestDropped(int requestCode) {
+        final Listener listener = mListener;
+        if (listener == null) {
+            return;
+        }
+        mDroppedRequests.incrementAndGet();
+        listener.onRequestDropped(requestCode);
+    }
+
+    /**
+     * @return point in time copy of the counters
+     */
+    @NonNull
+    Snapshot snapshot() {
+        final int permissions = Math.min(PermissionRegistry.size(), PermissionRegistry.MAX_PERMISSIONS);
+        final String[] names = new String[permissions];
+        final long[] granted = new long[permissions];
+        final long[] denied = new long[permissions];
+        for (int id = 0; id < permissions; id++) {
+            names[id] = PermissionRegistry.nameOf(id);
+            granted[id] = mGranted.get(id);
+            denied[id] = mDenied.get(id);
+        }
+
+        return new Snapshot(mRequests.get(), mCompletedRequests.get(), mCoalescedRequests.get(),
+                mDroppedRequests.get(), mRequestLatencyNanos.get(), mMaxRequestLatencyNanos.get(),
+                mPrompts.get(), mPromptNanos.get(), mDispatches.get(), mCallbacksFired.get(),
+                mPendingRequests.get(), mMaxPendingRequests.get(), names, granted, denied);
+    }
+
+    private static void max(AtomicLong max, long value) {
+        long current;
+        while (value > (current = max.get())) {
+            if (max.compareAndSet(current, value)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Point in time copy of the permission request metrics, meant to be exported
+     *
+     * @see PermissionEngine#getMetricsSnapshot()
+     */
+    public static final class Snapshot {
+        private final long mRequests;
+        private final long mCompletedRequests;
+        private final long mCoalescedRequests;
+        private final long mDroppedRequests;
+        private final long mRequestLatencyNanos;
+        private final long mMaxRequestLatencyNanos;
+        private final long mPrompts;
+        private final long mPromptNanos;
+        private final long mDispatches;
+        private final long mCallbacksFired;
+        private final long mPendingRequests;
+        private final long mMaxPendingRequests;
+        private final String[] mPermissions;
+        private final long[] mGranted;
+        private final long[] mDenied;
+
+        Snapshot(long requests, long completedRequests, long coalescedRequests, long droppedRequests,
+                 long requestLatencyNanos, long maxRequestLatencyNanos, long prompts, long promptNanos,
+                 long dispatches, long callbacksFired, long pendingRequests, long maxPendingRequests,
+                 String[] permissions, long[] granted, long[] denied) {
+            mRequests = requests;
+            mCompletedRequests = completedRequests;
+            mCoalescedRequests = coalescedRequests;
+            mDroppedRequests = droppedRequests;
+            mRequestLatencyNanos = requestLatencyNanos;
+            mMaxRequestLatencyNanos = maxRequestLatencyNanos;
+            mPrompts = prompts;
+            mPromptNanos = promptNanos;
+            mDispatches = dispatches;
+            mCallbacksFired = callbacksFired;
+            mPendingRequests = pendingRequests;
+            mMaxPendingRequests = maxPendingRequests;
+            mPermissions = permissions;
+            mGranted = granted;
+            mDenied = denied;
+        }
+
+        public long getRequests() {
+            return mRequests;
+        }
+
+        public long getCompletedRequests() {
+            return mCompletedRequests;
+        }
+
+        public long getCoalescedRequests() {
+            return mCoalescedRequests;
+        }
+
+        public long getDroppedRequests() {
+            return mDroppedRequests;
+        }
+
+        /**
+         * @return average time from request to result, in nanoseconds
+         */
+        public long getAverageRequestLatencyNanos() {
+            return mCompletedRequests > 0 ? mRequestLatencyNanos / mCompletedRequests : 0;
+        }
+
+        public long getMaxRequestLatencyNanos() {
+            return mMaxRequestLatencyNanos;
+        }
+
+        public long getPrompts() {
+            return mPrompts;
+        }
+
+        /**
+         * @return total time spent on priming and rationale prompts, in nanoseconds
+         */
+        public long getPromptNanos() {
+            return mPromptNanos;
+        }
+
+        public long getDispatches() {
+            return mDispatches;
+        }
+
+        public long getCallbacksFired() {
+            return mCallbacksFired;
+        }
+
+        /**
+         * @return number of requests pending, summed over the engines of every activity
+         */
+        public long getPendingRequests() {
+            return mPendingRequests;
+        }
+
+        public long getMaxPendingRequests() {
+            return mMaxPendingRequests;
+        }
+
+        /**
+         * @return permissions the grant and deny counts are reported for
+         */
+        @NonNull
+        public String[] getPermissions() {
+            return mPermissions.clone();
+        }
+
+        public long getGrantedCount(@NonNull String permission) {
+            final int id = PermissionRegistry.find(permission);
+            return id >= 0 && id < mGranted.length ? mGranted[id] : 0;
+        }
+
+        public long getDeniedCount(@NonNull String permission) {
+            final int id = PermissionRegistry.find(permission);
+            return id >= 0 && id < mDenied.length ? mDenied[id] : 0;
+        }
+    }
+}
@@ -0,0 +1,180 @@
+package com.aitorvs.android.allowme;
+
+/*
+ * Copyright (C) 17/10/26 aitorvs
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import android.support.annotation.NonNull;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Interns permission names into dense, small integer identifiers, so per-permission state can be
+ * kept in plain arrays indexed by id. Lookups are lock free, only interning a new name locks.
+ * <p>
+ * Once the permissions declared in the app manifest are known, see {@link #declare(String[])},
+ * permissions not declared there are rejected. Declared permissions are only interned when first
+ * used, so the ids in the masks go to the permissions the app actually asks about.
+ */
+final class PermissionRegistry {
+
+    /**
+     * Permission sets are packed into a <code>long</code> bit mask, one bit per permission id
+     */
+    static final int MAX_PERMISSIONS = Long.SIZE;
+
+    private static final ConcurrentHashMap<String, Permission> HANDLES = new ConcurrentHashMap<>();
+    // copied on write, handles are published here before they are in HANDLES
+    private static volatile Permission[] permissions = new Permission[0];
+    // null until the manifest is loaded
+    private static volatile Set<String> declared;
+
+    private PermissionRegistry() {
+    }
+
+    /**
+     * Records the permissions declared in the app manifest, and rejects any other permission from
+     * now on. Nothing is interned here.
+     *
+     * @param manifestPermissions permissions requested in the manifest
+     */
+    static void declare(@NonNull String[] manifestPermissions) {
+        declared = Collections.unmodifiableSet(new HashSet<>(Arrays.asList(manifestPermissions)));
+    }
+
+    /**
+     * @param permission permission
+     * @throws IllegalStateException when the manifest was loaded and the permission is not in it
+     */
+    static void requireDeclared(@NonNull String permission) {
+        final Set<String> manifestPermissions = declared;
+        if (manifestPermissions != null && !manifestPermissions.contains(permission)) {
+            throw new IllegalStateException(String.format("Permission %s is not declared in the " +
+                    "manifest, add a <uses-permission> element for it", permission));
+        }
+    }
+
+    /**
+     * Returns the handle of the given permission, interning it the first time the permission is
+     * seen
+     *
+     * @param permission permission
+     * @return permission handle
+     */
+    @NonNull
+    static Permission handleOf(@NonNull String permission) {
+        Permission handle = HANDLES.get(permission);
+        if (handle != null) {
+            return handle;
+        }
+
+        synchronized (HANDLES) {
+            handle = HANDLES.get(permission);
+            if (handle == null) {
+                final Permission[] grown = Arrays.copyOf(permissions, permissions.length + 1);
+                handle = new Permission(permission, permissions.length);
+                grown[handle.getId()] = handle;
+                permissions = grown;
+                HANDLES.put(permission, handle);
+            }
+            return handle;
+        }
+    }
+
+    /**
+     * Returns the identifier of the given permission, assigning a new one the first time the
+     * permission is seen
+     *
+     * @param permission permission
+     * @return permission identifier
+     */
+    static int idOf(@NonNull String permission) {
+        return handleOf(permission).getId();
+    }
+
+    /**
+     * Looks up the identifier of the given permission, without interning it
+     *
+     * @param permission permission
+     * @return permission identifier or <code>-1</code> when the permission was never seen
+     */
+    static int find(@NonNull String permission) {
+        final Permission handle = HANDLES.get(permission);
+        return handle != null ? handle.getId() : -1;
+    }
+
+    /**
+     * Packs the given permissions into a bit mask of their identifiers
+     *
+     * @param permissions permissions
+     * @return permission set bit mask
+     */
+    static long maskOf(@NonNull String[] permissions) {
+        long mask = 0;
+        for (String permission : permissions) {
+            mask |= bitOf(permission);
+        }
+        return mask;
+    }
+
+    /**
+     * @param permission permission
+     * @return the bit of the given permission in a permission set mask
+     */
+    static long bitOf(@NonNull String permission) {
+        return bitOf(handleOf(permission));
+    }
+
+    /**
+     * @param permission permission handle
+     * @return the bit of the given permission in a permission set mask
+     */
+    static long bitOf(@NonNull Permission permission) {
+        return bitOf(permission.getId());
+    }
+
+    /**
+     * @param id permission identifier
+     * @return the bit of the given permission in a permission set mask
+     * @throws IllegalStateException when the identifier doesn't fit in a permission set mask
+     */
+    static long bitOf(int id) {
+        if (id >= MAX_PERMISSIONS) {
+            throw new IllegalStateException(String.format("Too many permissions, %s can't be requested " +
+                    "(maximum is %d)", nameOf(id), MAX_PERMISSIONS));
+        }
+        return 1L << id;
+    }
+
+    /**
+     * @param id permission identifier
+     * @return the permission name for the given identifier
+     */
+    @NonNull
+    static String nameOf(int id) {
+        return permissions[id].getName();
+    }
+
+    /**
+     * @return number of permissions interned so far
+     */
+    static int size() {
+        return permissions.length;
+    }
+}
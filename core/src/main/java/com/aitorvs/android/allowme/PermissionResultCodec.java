@@ -0,0 +1,145 @@
+package com.aitorvs.android.allowme;
+
+/*
+ * Copyright (C) 17/10/26 aitorvs
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import android.support.annotation.NonNull;
+
+import java.nio.charset.Charset;
+
+/**
+ * Binary form of a {@link PermissionResultSet}:
+ * <pre>
+ * byte    version
+ * byte    permission count
+ * per permission, in request order:
+ *   short   name length
+ *   byte[]  name, UTF-8
+ * long    grants, bit i set when the i-th permission was granted
+ * </pre>
+ * Permissions are written by name rather than by {@link PermissionRegistry} identifier, since
+ * identifiers depend on the order permissions were first seen in the process that assigned them.
+ * The data can be read back by any process, e.g. when restoring the saved state after a process
+ * death or in another process of the app.
+ */
+final class PermissionResultCodec {
+
+    static final byte VERSION = 2;
+
+    static final int OFFSET_COUNT = 1;
+    static final int OFFSET_NAMES = 2;
+
+    // grants are positional bits of a long
+    private static final int MAX_COUNT = Long.SIZE;
+    private static final int MAX_NAME_LENGTH = 0xffff;
+    private static final int GRANTS_SIZE = 8;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private PermissionResultCodec() {
+    }
+
+    /**
+     * @param permissions permissions, in request order
+     * @param granted     grants, bit i set when the i-th permission was granted
+     * @return encoded result set
+     */
+    @NonNull
+    static byte[] encode(@NonNull String[] permissions, long granted) {
+        if (permissions.length > MAX_COUNT) {
+            throw new IllegalStateException(String.format("Too many permissions to encode (maximum is %d)", MAX_COUNT));
+        }
+        final byte[][] names = new byte[permissions.length][];
+        int size = OFFSET_NAMES + GRANTS_SIZE;
+        for (int i = 0; i < permissions.length; i++) {
+            names[i] = permissions[i].getBytes(UTF_8);
+            if (names[i].length > MAX_NAME_LENGTH) {
+                throw new IllegalStateException(String.format("Permission %s can't be encoded", permissions[i]));
+            }
+            size += 2 + names[i].length;
+        }
+
+        final byte[] data = new byte[size];
+        data[0] = VERSION;
+        data[OFFSET_COUNT] = (byte) permissions.length;
+        int offset = OFFSET_NAMES;
+        for (byte[] name : names) {
+            data[offset] = (byte) (name.length >>> 8);
+            data[offset + 1] = (byte) name.length;
+            System.arraycopy(name, 0, data, offset + 2, name.length);
+            offset += 2 + name.length;
+        }
+        writeLong(data, offset, granted);
+        return data;
+    }
+
+    /**
+     * Resolves the permissions of an encoded result set to the identifiers of this process
+     *
+     * @param data encoded result set
+     * @return permission identifiers, in request order
+     * @throws IllegalStateException when the data is malformed or of another version
+     */
+    @NonNull
+    static int[] idsOf(@NonNull byte[] data) {
+        if (data.length < OFFSET_NAMES + GRANTS_SIZE || data[0] != VERSION) {
+            throw new IllegalStateException(String.format("Unsupported result set encoding (version %d)",
+                    data.length > 0 ? data[0] : -1));
+        }
+        final int count = data[OFFSET_COUNT] & 0xff;
+        if (count > MAX_COUNT) {
+            throw new IllegalStateException(String.format("Malformed result set encoding, %d permissions", count));
+        }
+        final int[] ids = new int[count];
+        final int end = data.length - GRANTS_SIZE;
+        int offset = OFFSET_NAMES;
+        for (int i = 0; i < count; i++) {
+            final int length = offset + 2 <= end ? ((data[offset] & 0xff) << 8) | (data[offset + 1] & 0xff) : -1;
+            if (length < 0 || offset + 2 + length > end) {
+                throw new IllegalStateException(String.format("Malformed result set encoding, %d bytes " +
+                        "for %d permissions", data.length, count));
+            }
+            ids[i] = PermissionRegistry.idOf(new String(data, offset + 2, length, UTF_8));
+            offset += 2 + length;
+        }
+        if (offset != end) {
+            throw new IllegalStateException(String.format("Malformed result set encoding, %d bytes " +
+                    "for %d permissions", data.length, count));
+        }
+        return ids;
+    }
+
+    /**
+     * @param data encoded result set
+     * @return grants, bit i set when the i-th permission was granted
+     */
+    static long grantedOf(@NonNull byte[] data) {
+        return readLong(data, data.length - GRANTS_SIZE);
+    }
+
+    private static void writeLong(byte[] data, int offset, long value) {
+        for (int i = 0; i < 8; i++) {
+            data[offset + i] = (byte) (value >>> (56 - 8 * i));
+        }
+    }
+
+    private static long readLong(byte[] data, int offset) {
+        long value = 0;
+        for (int i = 0; i < 8; i++) {
+            value = (value << 8) | (data[offset + i] & 0xff);
+        }
+        return value;
+    }
+}
@@ -0,0 +1,48 @@
+package com.aitorvs.android.allowme;
+
+/*
+ * Copyright (C) 17/10/26 aitorvs
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import android.support.annotation.NonNull;
+
+/**
+ * Routes a permission result to the {@link OnPermissionResult} annotated method of a handler.
+ * <p>
+ * Implementations are generated at build time by the AllowMe annotation processor, one per handler
+ * class, and named <code>HandlerClass$$PermissionResultDispatcher</code>.
+ *
+ * @param <T> handler type
+ */
+public interface PermissionResultDispatcher<T> {
+
+    /**
+     * Finds the handler method annotated with the given permission set
+     *
+     * @param sortedPermissions permissions, sorted in natural order
+     * @return handler identifier or <code>-1</code> when no method is annotated with those permissions
+     */
+    int findHandler(@NonNull String[] sortedPermissions);
+
+    /**
+     * Calls the handler method previously returned by {@link #findHandler(String[])}
+     *
+     * @param target      handler instance
+     * @param handler     handler identifier
+     * @param requestCode permission request code
+     * @param results     permission request results
+     */
+    void dispatch(@NonNull T target, int handler, int requestCode, PermissionResultSet results);
+}
@@ -0,0 +1,149 @@
+package com.aitorvs.android.allowme;
+
+/*
+ * Copyright (C) 17/10/26 aitorvs
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import android.support.annotation.NonNull;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.logging.Logger;
+
+/**
+ * Looks up, once per handler class, the {@link PermissionResultDispatcher} generated by the
+ * annotation processor. Handler classes that were not processed are rejected, unless the
+ * reflective fallback is enabled with {@link #setReflectionEnabled(boolean)}.
+ */
+final class PermissionResultDispatchers {
+
+    static final String SUFFIX = "$$PermissionResultDispatcher";
+
+    private static final Map<Class<?>, PermissionResultDispatcher<Object>> DISPATCHERS = new HashMap<>();
+    private static volatile boolean reflectionEnabled;
+    // guarded by DISPATCHERS
+    private static boolean reflectionWarned;
+
+    private PermissionResultDispatchers() {
+    }
+
+    @NonNull
+    static PermissionResultDispatcher<Object> get(@NonNull Class<?> handlerClass) {
+        synchronized (DISPATCHERS) {
+            PermissionResultDispatcher<Object> dispatcher = DISPATCHERS.get(handlerClass);
+            if (dispatcher == null) {
+                dispatcher = create(handlerClass);
+                DISPATCHERS.put(handlerClass, dispatcher);
+            }
+            return dispatcher;
+        }
+    }
+
+    /**
+     * @param enabled <code>true</code> to dispatch through reflection to the handler classes the
+     *                annotation processor has not seen, instead of rejecting them
+     */
+    static void setReflectionEnabled(boolean enabled) {
+        reflectionEnabled = enabled;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static PermissionResultDispatcher<Object> create(Class<?> handlerClass) {
+        try {
+            Class<?> generated = Class.forName(handlerClass.getName() + SUFFIX, true, handlerClass.getClassLoader());
+            return (PermissionResultDispatcher<Object>) generated.newInstance();
+        } catch (ClassNotFoundException e) {
+            // annotation processor not run on this class
+            if (!reflectionEnabled) {
+                throw new IllegalStateException(String.format("No generated dispatcher for %s, add the " +
+                        "allowme compiler as annotation processor", handlerClass.getName()), e);
+            }
+            if (!reflectionWarned) {
+                reflectionWarned = true;
+                Logger.getLogger(PermissionResultDispatchers.class.getName()).warning(String.format(
+                        "No generated dispatcher for %s, falling back to reflection", handlerClass.getName()));
+            }
+            return new ReflectiveDispatcher(handlerClass);
+        } catch (Exception e) {
+            throw new IllegalStateException(String.format("Unable to create dispatcher for %s", handlerClass.getName()), e);
+        }
+    }
+
+    /**
+     * Sorts a copy of the given permissions, as expected by {@link PermissionResultDispatcher#findHandler(String[])}
+     */
+    @NonNull
+    static String[] sorted(@NonNull String[] permissions) {
+        String[] sorted = permissions.clone();
+        Arrays.sort(sorted);
+        return sorted;
+    }
+
+    /**
+     * Fallback dispatcher for classes the annotation processor has not seen. The annotated methods
+     * are scanned once, when the dispatcher is created.
+     */
+    static final class ReflectiveDispatcher implements PermissionResultDispatcher<Object> {
+        private final Method[] mMethods;
+        private final String[][] mPermissions;
+
+        ReflectiveDispatcher(@NonNull Class<?> handlerClass) {
+            ArrayList<Method> methods = new ArrayList<>();
+            ArrayList<String[]> permissions = new ArrayList<>();
+            for (Method method : handlerClass.getDeclaredMethods()) {
+                OnPermissionResult annotation = method.getAnnotation(OnPermissionResult.class);
+                if (annotation == null) {
+                    continue;
+                }
+
+                // check the correctness of the annotated method
+                if (method.getParameterTypes().length != 2
+                        || method.getParameterTypes()[0] != int.class
+                        || method.getParameterTypes()[1] != PermissionResultSet.class) {
+                    throw new IllegalStateException(String.format("Method %s shall have two " +
+                            "parameters of type 'int' and 'PermissionResultSet'", method.getName()));
+                }
+
+                method.setAccessible(true);
+                methods.add(method);
+                permissions.add(sorted(annotation.requestedPermissions()));
+            }
+            mMethods = methods.toArray(new Method[methods.size()]);
+            mPermissions = permissions.toArray(new String[permissions.size()][]);
+        }
+
+        @Override
+        public int findHandler(@NonNull String[] sortedPermissions) {
+            for (int i = 0; i < mPermissions.length; i++) {
+                if (Arrays.equals(mPermissions[i], sortedPermissions)) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        @Override
+        public void dispatch(@NonNull Object target, int handler, int requestCode, PermissionResultSet results) {
+            try {
+                mMethods[handler].invoke(target, requestCode, results);
+            } catch (Exception e) {
+                throw new IllegalStateException(String.format("Error invoking %s", mMethods[handler].getName()), e);
+            }
+        }
+    }
+}
@@ -0,0 +1,223 @@
+package com.aitorvs.android.allowme;
+
+/*
+ * Copyright (C) 02/12/15 aitorvs
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import android.support.annotation.NonNull;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Results of a permission request. Grant results are kept as bit sets over the
+ * {@link PermissionRegistry} permission identifiers, so queries don't allocate.
+ */
+public class PermissionResultSet {
+    /**
+     * Grant result of a granted permission, same as <code>PackageManager.PERMISSION_GRANTED</code>
+     */
+    public static final int PERMISSION_GRANTED = 0;
+    /**
+     * Grant result of a denied permission, same as <code>PackageManager.PERMISSION_DENIED</code>
+     */
+    public static final int PERMISSION_DENIED = -1;
+
+    private final String[] mPermissions;
+    private final int[] mIds;
+    private final long mRequested;
+    private final long mGranted;
+
+    private PermissionResultSet(String[] permissions, int[] ids, long requested, long granted) {
+        mPermissions = permissions;
+        mIds = ids;
+        mRequested = requested;
+        mGranted = granted;
+    }
+
+    protected static PermissionResultSet create(@NonNull String[] permissions, int[] grantResults) {
+        final int[] ids = new int[permissions.length];
+        long requested = 0;
+        long granted = 0;
+        for (int i = 0; i < permissions.length; i++) {
+            ids[i] = PermissionRegistry.idOf(permissions[i]);
+            requested |= PermissionRegistry.bitOf(ids[i]);
+            if (grantResults[i] == PERMISSION_GRANTED) {
+                granted |= PermissionRegistry.bitOf(ids[i]);
+            }
+        }
+        return new PermissionResultSet(permissions, ids, requested, granted);
+    }
+
+    /**
+     * Creates a result set from permission set masks, in permission identifier order
+     *
+     * @param requested permission set mask of the requested permissions
+     * @param granted   permission set mask of the granted permissions
+     * @return {@link PermissionResultSet}
+     */
+    static PermissionResultSet of(long requested, long granted) {
+        final int size = Long.bitCount(requested);
+        final String[] permissions = new String[size];
+        final int[] ids = new int[size];
+        int count = 0;
+        for (long bits = requested; bits != 0; bits &= bits - 1) {
+            ids[count] = Long.numberOfTrailingZeros(bits);
+            permissions[count] = PermissionRegistry.nameOf(ids[count]);
+            count++;
+        }
+        return new PermissionResultSet(permissions, ids, requested, granted & requested);
+    }
+
+    /**
+     * Creates a result set from permission identifiers, in request order
+     *
+     * @param ids     permission identifiers
+     * @param granted permission set mask of the granted permissions
+     * @return {@link PermissionResultSet}
+     */
+    static PermissionResultSet of(int[] ids, long granted) {
+        final String[] permissions = new String[ids.length];
+        long requested = 0;
+        for (int i = 0; i < ids.length; i++) {
+            permissions[i] = PermissionRegistry.nameOf(ids[i]);
+            requested |= PermissionRegistry.bitOf(ids[i]);
+        }
+        return new PermissionResultSet(permissions, ids, requested, granted & requested);
+    }
+
+    /**
+     * Decodes a result set encoded with {@link #toByteArray()}, see {@link PermissionResultView}
+     * to read it without decoding
+     *
+     * @param data encoded result set
+     * @return {@link PermissionResultSet}
+     * @throws IllegalStateException when the data is malformed or of an unsupported version
+     */
+    @NonNull
+    public static PermissionResultSet fromByteArray(@NonNull byte[] data) {
+        return PermissionResultView.wrap(data).toResultSet();
+    }
+
+    /**
+     * Encodes the result set into a compact binary form: the permission names and a grant bit
+     * mask, cheap to persist or to pass along in a <code>Bundle</code>, and readable by any process
+     *
+     * @return encoded result set
+     */
+    @NonNull
+    public byte[] toByteArray() {
+        long granted = 0;
+        for (int i = 0; i < mIds.length; i++) {
+            if (isGrantedAt(i)) {
+                granted |= 1L << i;
+            }
+        }
+        return PermissionResultCodec.encode(mPermissions, granted);
+    }
+
+    public Map<String, Boolean> getGrantedMap() {
+        HashMap<String, Boolean> map = new HashMap<>();
+        for (int i = 0; i < mPermissions.length; i++)
+            map.put(mPermissions[i], isGrantedAt(i));
+        return map;
+    }
+
+    public String[] getPermissions() {
+        return mPermissions.clone();
+    }
+
+    /**
+     * @return number of permissions in the result set
+     */
+    public int size() {
+        return mPermissions.length;
+    }
+
+    /**
+     * @param index permission index, in request order
+     * @return the permission at the given index
+     */
+    @NonNull
+    public String getPermission(int index) {
+        return mPermissions[index];
+    }
+
+    /**
+     * @param index permission index, in request order
+     * @return <code>true</code> when the permission at the given index was granted
+     */
+    public boolean isGrantedAt(int index) {
+        return (mGranted & PermissionRegistry.bitOf(mIds[index])) != 0;
+    }
+
+    public boolean isGranted(@NonNull String permission) {
+        final int id = PermissionRegistry.find(permission);
+        return id >= 0 && (mGranted & PermissionRegistry.bitOf(id)) != 0;
+    }
+
+    /**
+     * @param permission permission handle
+     * @return <code>true</code> when the permission was requested and granted
+     */
+    public boolean isGranted(@NonNull Permission permission) {
+        return (mGranted & PermissionRegistry.bitOf(permission)) != 0;
+    }
+
+    /**
+     * @return <code>true</code> when the result set is not empty and all permissions were granted
+     */
+    public boolean allGranted() {
+        return mRequested != 0 && mGranted == mRequested;
+    }
+
+    /**
+     * @return <code>true</code> when at least one of the permissions was denied
+     */
+    public boolean anyDenied() {
+        return (mRequested & ~mGranted) != 0;
+    }
+
+    /**
+     * Finds the next denied permission, to iterate the denied permissions without allocations
+     * <pre>
+     * for (int i = results.nextDenied(0); i >= 0; i = results.nextDenied(i + 1)) {
+     *     results.getPermission(i);
+     * }
+     * </pre>
+     *
+     * @param fromIndex index to start from, inclusive
+     * @return index of the next denied permission or <code>-1</code> when there are no more
+     */
+    public int nextDenied(int fromIndex) {
+        if (!anyDenied()) {
+            return -1;
+        }
+        for (int i = fromIndex; i < mIds.length; i++) {
+            if ((mGranted & PermissionRegistry.bitOf(mIds[i])) == 0) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    long getRequestedMask() {
+        return mRequested;
+    }
+
+    long getGrantedMask() {
+        return mGranted;
+    }
+}
@@ -0,0 +1,139 @@
+package com.aitorvs.android.allowme;
+
+/*
+ * Copyright (C) 17/10/26 aitorvs
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import android.support.annotation.NonNull;
+
+/**
+ * Read-only view over a result set encoded with {@link PermissionResultSet#toByteArray()}. The
+ * permission names are resolved to identifiers once, when wrapped, grants are read straight from
+ * the encoded bytes.
+ */
+public final class PermissionResultView {
+
+    private final byte[] mData;
+    private final int[] mIds;
+    // bit i set when the i-th permission was granted
+    private final long mGranted;
+
+    private PermissionResultView(byte[] data, int[] ids) {
+        mData = data;
+        mIds = ids;
+        mGranted = PermissionResultCodec.grantedOf(data);
+    }
+
+    /**
+     * Wraps an encoded result set, without copying it. The data must not be modified afterwards.
+     *
+     * @param data encoded result set, by this or any other process of the app
+     * @return {@link PermissionResultView}
+     * @throws IllegalStateException when the data is malformed or of an unsupported version
+     */
+    @NonNull
+    public static PermissionResultView wrap(@NonNull byte[] data) {
+        return new PermissionResultView(data, PermissionResultCodec.idsOf(data));
+    }
+
+    /**
+     * @return number of permissions in the result set
+     */
+    public int size() {
+        return mIds.length;
+    }
+
+    /**
+     * @param index permission index, in request order
+     * @return the permission at the given index
+     */
+    @NonNull
+    public String getPermission(int index) {
+        checkIndex(index);
+        return PermissionRegistry.nameOf(mIds[index]);
+    }
+
+    /**
+     * @param index permission index, in request order
+     * @return <code>true</code> when the permission at the given index was granted
+     */
+    public boolean isGrantedAt(int index) {
+        checkIndex(index);
+        return (mGranted & (1L << index)) != 0;
+    }
+
+    public boolean isGranted(@NonNull String permission) {
+        final int id = PermissionRegistry.find(permission);
+        return id >= 0 && isGrantedId(id);
+    }
+
+    /**
+     * @param permission permission handle
+     * @return <code>true</code> when the permission was requested and granted
+     */
+    public boolean isGranted(@NonNull Permission permission) {
+        return isGrantedId(permission.getId());
+    }
+
+    /**
+     * @return <code>true</code> when the result set is not empty and all permissions were granted
+     */
+    public boolean allGranted() {
+        final int size = size();
+        for (int i = 0; i < size; i++) {
+            if ((mGranted & (1L << i)) == 0) {
+                return false;
+            }
+        }
+        return size > 0;
+    }
+
+    /**
+     * @return the decoded {@link PermissionResultSet}
+     */
+    @NonNull
+    public PermissionResultSet toResultSet() {
+        long granted = 0;
+        for (int i = 0; i < mIds.length; i++) {
+            if ((mGranted & (1L << i)) != 0) {
+                granted |= PermissionRegistry.bitOf(mIds[i]);
+            }
+        }
+        return PermissionResultSet.of(mIds.clone(), granted);
+    }
+
+    /**
+     * @return the encoded result set, not a copy
+     */
+    @NonNull
+    byte[] getData() {
+        return mData;
+    }
+
+    private boolean isGrantedId(int id) {
+        for (int i = 0; i < mIds.length; i++) {
+            if (mIds[i] == id) {
+                return (mGranted & (1L << i)) != 0;
+            }
+        }
+        return false;
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= mIds.length) {
+            throw new IndexOutOfBoundsException(String.format("Index %d out of bounds (size %d)", index, mIds.length));
+        }
+    }
+}
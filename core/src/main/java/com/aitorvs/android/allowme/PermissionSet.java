@@ -0,0 +1,179 @@
+package com.aitorvs.android.allowme;
+
+/*
+ * Copyright (C) 17/10/26 aitorvs
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import android.support.annotation.NonNull;
+
+/**
+ * Set of permissions compiled once, up front, to query the state of all of them in a single call
+ * with no allocations. See {@link PermissionEngine#queryState(PermissionSet)}.
+ * <p>
+ * The state of the set is returned packed into a <code>long</code>: bit <code>i</code> is set when
+ * the permission at index <code>i</code> is granted, and bit <code>32 + i</code> when its request
+ * rationale should be shown. Use the static methods of this class to read it.
+ */
+public final class PermissionSet {
+
+    /**
+     * Maximum number of permissions of a set
+     */
+    public static final int MAX_SIZE = 32;
+
+    private static final int RATIONALE_SHIFT = 32;
+
+    private final String[] mPermissions;
+    private final int[] mIds;
+    private final long mMask;
+
+    private PermissionSet(String[] permissions, int[] ids, long mask) {
+        mPermissions = permissions;
+        mIds = ids;
+        mMask = mask;
+    }
+
+    /**
+     * Compiles a permission set, duplicates are dropped
+     *
+     * @param permissions permissions, at most {@link #MAX_SIZE}
+     * @return {@link PermissionSet}
+     * @throws IllegalStateException when a permission is not declared in the manifest
+     */
+    @NonNull
+    public static PermissionSet of(@NonNull String... permissions) {
+        final Permission[] handles = new Permission[permissions.length];
+        for (int i = 0; i < permissions.length; i++) {
+            handles[i] = Permission.of(permissions[i]);
+        }
+        return of(handles);
+    }
+
+    /**
+     * Compiles a permission set, duplicates are dropped
+     *
+     * @param permissions permission handles, at most {@link #MAX_SIZE}
+     * @return {@link PermissionSet}
+     */
+    @NonNull
+    public static PermissionSet of(@NonNull Permission... permissions) {
+        final String[] names = new String[permissions.length];
+        final int[] ids = new int[permissions.length];
+        long mask = 0;
+        int count = 0;
+        for (Permission permission : permissions) {
+            final long bit = PermissionRegistry.bitOf(permission);
+            if ((mask & bit) == 0) {
+                mask |= bit;
+                names[count] = permission.getName();
+                ids[count] = permission.getId();
+                count++;
+            }
+        }
+        if (count > MAX_SIZE) {
+            throw new IllegalStateException(String.format("Too many permissions in the set, %d " +
+                    "(maximum is %d)", count, MAX_SIZE));
+        }
+
+        final String[] setNames = new String[count];
+        final int[] setIds = new int[count];
+        System.arraycopy(names, 0, setNames, 0, count);
+        System.arraycopy(ids, 0, setIds, 0, count);
+        return new PermissionSet(setNames, setIds, mask);
+    }
+
+    /**
+     * @return number of permissions in the set
+     */
+    public int size() {
+        return mPermissions.length;
+    }
+
+    @NonNull
+    public String getPermission(int index) {
+        return mPermissions[index];
+    }
+
+    /**
+     * @param permission permission
+     * @return index of the permission in the set, <code>-1</code> when not in the set
+     */
+    public int indexOf(@NonNull String permission) {
+        for (int i = 0; i < mPermissions.length; i++) {
+            if (mPermissions[i].equals(permission)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @param index permission index
+     * @return {@link PermissionRegistry} identifier of the permission
+     */
+    int getId(int index) {
+        return mIds[index];
+    }
+
+    /**
+     * @return permission set mask of the set
+     */
+    long getMask() {
+        return mMask;
+    }
+
+    /**
+     * @param state state of the set
+     * @return <code>true</code> when all the permissions of the set are granted
+     */
+    public boolean allGranted(long state) {
+        final long all = (1L << mPermissions.length) - 1;
+        return (state & all) == all;
+    }
+
+    /**
+     * @param state state of a set
+     * @param index permission index
+     * @return <code>true</code> when the permission is granted
+     */
+    public static boolean isGranted(long state, int index) {
+        return (state & (1L << index)) != 0;
+    }
+
+    /**
+     * @param state state of a set
+     * @param index permission index
+     * @return <code>true</code> when the permission request rationale should be shown
+     */
+    public static boolean shouldShowRationale(long state, int index) {
+        return (state & (1L << (RATIONALE_SHIFT + index))) != 0;
+    }
+
+    /**
+     * @param index permission index
+     * @return state bit telling the permission is granted
+     */
+    static long grantedBit(int index) {
+        return 1L << index;
+    }
+
+    /**
+     * @param index permission index
+     * @return state bit telling the permission request rationale should be shown
+     */
+    static long rationaleBit(int index) {
+        return 1L << (RATIONALE_SHIFT + index);
+    }
+}
@@ -0,0 +1,128 @@
+package com.aitorvs.android.allowme;
+
+/*
+ * Copyright (C) 17/10/26 aitorvs
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Request state of each permission, see {@link PermissionEngine#STATE_NEVER_ASKED} and the other
+ * states, packed into 2 bits per {@link PermissionRegistry} id and fed by the request results.
+ * <p>
+ * Lock free, reading a state is a single volatile load.
+ * <p>
+ * A permission denied for good may be allowed again from the Settings app, so that state is only
+ * trusted until {@link #reprobe()}: the next result of the permission confirms it again.
+ */
+final class PermissionStateStore {
+
+    private static final int BITS = 2;
+    private static final long STATE_MASK = (1L << BITS) - 1;
+    private static final int PER_WORD = Long.SIZE / BITS;
+
+    private final AtomicLongArray mStates = new AtomicLongArray(PermissionRegistry.MAX_PERMISSIONS / PER_WORD);
+    // permissions whose state must be confirmed by a new result before it is trusted
+    private final AtomicLong mUnconfirmed = new AtomicLong();
+
+    /**
+     * @param id permission identifier
+     * @return state of the permission
+     */
+    int get(int id) {
+        if (id >= PermissionRegistry.MAX_PERMISSIONS) {
+            return PermissionEngine.STATE_NEVER_ASKED;
+        }
+        return (int) ((mStates.get(id / PER_WORD) >>> shift(id)) & STATE_MASK);
+    }
+
+    /**
+     * @param id    permission identifier
+     * @param state new state of the permission
+     */
+    void set(int id, int state) {
+        if (id >= PermissionRegistry.MAX_PERMISSIONS) {
+            return;
+        }
+        confirm(1L << id);
+        final int word = id / PER_WORD;
+        final long mask = STATE_MASK << shift(id);
+        final long bits = ((long) state << shift(id)) & mask;
+        long current;
+        do {
+            current = mStates.get(word);
+            if ((current & mask) == bits) {
+                return;
+            }
+        } while (!mStates.compareAndSet(word, current, (current & ~mask) | bits));
+    }
+
+    /**
+     * @param permissionSet permission set mask
+     * @param state         new state of the permissions
+     */
+    void setAll(long permissionSet, int state) {
+        for (long bits = permissionSet; bits != 0; bits &= bits - 1) {
+            set(Long.numberOfTrailingZeros(bits), state);
+        }
+    }
+
+    /**
+     * @param permissionSet permission set mask
+     * @param state         state
+     * @return permission set mask of the given permissions in the given state
+     */
+    long maskOf(long permissionSet, int state) {
+        long mask = 0;
+        for (long bits = permissionSet; bits != 0; bits &= bits - 1) {
+            final int id = Long.numberOfTrailingZeros(bits);
+            if (get(id) == state) {
+                mask |= 1L << id;
+            }
+        }
+        return mask;
+    }
+
+    /**
+     * @param permissionSet permission set mask
+     * @return permission set mask of the given permissions denied for good, and confirmed so
+     */
+    long deniedForeverOf(long permissionSet) {
+        return maskOf(permissionSet, PermissionEngine.STATE_DENIED_FOREVER) & ~mUnconfirmed.get();
+    }
+
+    /**
+     * Distrusts the permissions denied for good until their next result, so the next request asks
+     * the system again
+     */
+    void reprobe() {
+        mUnconfirmed.set(-1L);
+    }
+
+    private void confirm(long bit) {
+        long current;
+        do {
+            current = mUnconfirmed.get();
+            if ((current & bit) == 0) {
+                return;
+            }
+        } while (!mUnconfirmed.compareAndSet(current, current & ~bit));
+    }
+
+    private static int shift(int id) {
+        return (id % PER_WORD) * BITS;
+    }
+}
@@ -0,0 +1,67 @@
+package com.aitorvs.android.allowme;
+
+/*
+ * Copyright (C) 17/10/26 aitorvs
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.annotation.StringRes;
+
+/**
+ * Message of a priming or rationale prompt, either a text or a string resource. Resources are only
+ * resolved by the {@link PermissionBackend} when the prompt is actually shown.
+ */
+public final class PromptMessage {
+
+    private final String mText;
+    private final int mResId;
+
+    private PromptMessage(String text, int resId) {
+        mText = text;
+        mResId = resId;
+    }
+
+    @NonNull
+    public static PromptMessage of(@NonNull String text) {
+        return new PromptMessage(text, 0);
+    }
+
+    @NonNull
+    public static PromptMessage of(@StringRes int resId) {
+        return new PromptMessage(null, resId);
+    }
+
+    /**
+     * @return message text, <code>null</code> when the message is a string resource
+     */
+    @Nullable
+    public String getText() {
+        return mText;
+    }
+
+    /**
+     * @return message string resource, <code>0</code> when the message is a text
+     */
+    @StringRes
+    public int getResId() {
+        return mResId;
+    }
+
+    @Override
+    public String toString() {
+        return mText != null ? mText : "@" + mResId;
+    }
+}
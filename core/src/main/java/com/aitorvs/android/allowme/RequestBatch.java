@@ -0,0 +1,82 @@
+package com.aitorvs.android.allowme;
+
+/*
+ * Copyright (C) 17/10/26 aitorvs
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.util.Arrays;
+
+/**
+ * Group of permission requests, each keeping its own request code, permission set and the
+ * permissions already granted. Used to coalesce the requests sent to the system as a single
+ * permission request, and to hand over the requests completed by a result.
+ */
+final class RequestBatch {
+
+    private int[] mCodes = new int[4];
+    private long[] mMasks = new long[4];
+    private long[] mGranted = new long[4];
+    private int mSize;
+    private long mPermissions;
+
+    /**
+     * @param requestCode request code identifier
+     * @param permissions permission set mask
+     * @param granted     permission set mask of the permissions already granted
+     */
+    void add(int requestCode, long permissions, long granted) {
+        if (mSize == mCodes.length) {
+            mCodes = Arrays.copyOf(mCodes, mSize * 2);
+            mMasks = Arrays.copyOf(mMasks, mSize * 2);
+            mGranted = Arrays.copyOf(mGranted, mSize * 2);
+        }
+        mCodes[mSize] = requestCode;
+        mMasks[mSize] = permissions;
+        mGranted[mSize] = granted;
+        mSize++;
+        mPermissions |= permissions & ~granted;
+    }
+
+    int size() {
+        return mSize;
+    }
+
+    int getRequestCode(int index) {
+        return mCodes[index];
+    }
+
+    long getPermissions(int index) {
+        return mMasks[index];
+    }
+
+    long getGranted(int index) {
+        return mGranted[index];
+    }
+
+    /**
+     * @return union of the permission sets of all members, but the granted permissions
+     */
+    long getPermissions() {
+        return mPermissions;
+    }
+
+    /**
+     * Removes all members, keeping the capacity for reuse
+     */
+    void clear() {
+        mSize = 0;
+        mPermissions = 0;
+    }
+}
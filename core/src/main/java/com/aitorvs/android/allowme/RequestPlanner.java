@@ -0,0 +1,100 @@
+package com.aitorvs.android.allowme;
+
+/*
+ * Copyright (C) 17/10/26 aitorvs
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import android.support.annotation.NonNull;
+
+import java.util.Arrays;
+
+/**
+ * Plans the system permission request of a set of permissions: permissions already granted are
+ * left out, and the rest are sent grouped by permission group, so the system shows them together.
+ */
+final class RequestPlanner {
+
+    private static final String NO_GROUP = "";
+
+    private final PermissionBackend mBackend;
+    // permission group of each permission id, looked up once, guarded by this
+    private String[] mGroups = new String[0];
+
+    RequestPlanner(@NonNull PermissionBackend backend) {
+        mBackend = backend;
+    }
+
+    /**
+     * @param permissions permissions
+     * @return permission set mask of the given permissions that are already granted
+     */
+    long grantedOf(@NonNull String[] permissions) {
+        long granted = 0;
+        for (String permission : permissions) {
+            if (mBackend.isPermissionGranted(permission)) {
+                granted |= PermissionRegistry.bitOf(permission);
+            }
+        }
+        return granted;
+    }
+
+    /**
+     * @param permissionSet permission set mask of the permissions to send
+     * @return names of the permissions to send, those of the same permission group together, in
+     * order of their group first permission
+     */
+    @NonNull
+    String[] plan(long permissionSet) {
+        final String[] names = new String[Long.bitCount(permissionSet)];
+        long remaining = permissionSet;
+        int count = 0;
+        while (remaining != 0) {
+            final int id = Long.numberOfTrailingZeros(remaining);
+            final String group = groupOf(id);
+            // take the whole group along with its first permission
+            for (long members = remaining; members != 0; members &= members - 1) {
+                final int member = Long.numberOfTrailingZeros(members);
+                if (member == id || (!group.isEmpty() && group.equals(groupOf(member)))) {
+                    names[count++] = PermissionRegistry.nameOf(member);
+                    remaining &= ~(1L << member);
+                }
+            }
+        }
+        return names;
+    }
+
+    private String groupOf(int id) {
+        synchronized (this) {
+            if (id < mGroups.length && mGroups[id] != null) {
+                return mGroups[id];
+            }
+        }
+
+        final String group;
+        try {
+            group = mBackend.getPermissionGroup(PermissionRegistry.nameOf(id));
+        } catch (RuntimeException e) {
+            // grouping only orders the request, never fail it, and ask again next time
+            return NO_GROUP;
+        }
+        synchronized (this) {
+            if (id >= mGroups.length) {
+                mGroups = Arrays.copyOf(mGroups, PermissionRegistry.size());
+            }
+            mGroups[id] = group != null ? group : NO_GROUP;
+            return mGroups[id];
+        }
+    }
+}
@@ -0,0 +1,145 @@
+package com.aitorvs.android.allowme;
+
+/*
+ * Copyright (C) 17/10/26 aitorvs
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+/**
+ * Hashed timer wheel. Timeouts are intrusive {@link Node}s hashed into a ring of slots by their
+ * deadline tick, so scheduling and cancelling is O(1) and expiring only visits the elapsed slots.
+ * Not thread safe.
+ */
+final class TimerWheel {
+
+    /**
+     * Timeout node, extended by the objects that can time out
+     */
+    static class Node {
+        private Node mPrev;
+        private Node mNext;
+        private long mDeadline;
+        private int mSlot = -1;
+
+        boolean isScheduled() {
+            return mSlot >= 0;
+        }
+
+        /**
+         * @return next node of an expired chain, see {@link TimerWheel#expire(long)}
+         */
+        @Nullable
+        Node nextExpired() {
+            return mNext;
+        }
+    }
+
+    private final Node[] mSlots;
+    private final long mTickMillis;
+    private long mLastTick = -1;
+    private int mSize;
+
+    /**
+     * @param slots      number of slots, power of two
+     * @param tickMillis slot duration
+     */
+    TimerWheel(int slots, long tickMillis) {
+        if (Integer.bitCount(slots) != 1) {
+            throw new IllegalArgumentException("Number of slots must be a power of two");
+        }
+        mSlots = new Node[slots];
+        mTickMillis = tickMillis;
+    }
+
+    long getTickMillis() {
+        return mTickMillis;
+    }
+
+    void schedule(@NonNull Node node, long nowMillis, long timeoutMillis) {
+        cancel(node);
+        if (mLastTick < 0) {
+            mLastTick = nowMillis / mTickMillis;
+        }
+
+        node.mDeadline = nowMillis + timeoutMillis;
+        // first tick at or after the deadline, never an already elapsed one
+        final long tick = Math.max((node.mDeadline + mTickMillis - 1) / mTickMillis, mLastTick + 1);
+        node.mSlot = (int) (tick & (mSlots.length - 1));
+        node.mPrev = null;
+        node.mNext = mSlots[node.mSlot];
+        if (node.mNext != null) {
+            node.mNext.mPrev = node;
+        }
+        mSlots[node.mSlot] = node;
+        mSize++;
+    }
+
+    void cancel(@NonNull Node node) {
+        if (node.mSlot < 0) {
+            return;
+        }
+        if (node.mPrev != null) {
+            node.mPrev.mNext = node.mNext;
+        } else {
+            mSlots[node.mSlot] = node.mNext;
+        }
+        if (node.mNext != null) {
+            node.mNext.mPrev = node.mPrev;
+        }
+        node.mPrev = null;
+        node.mNext = null;
+        node.mSlot = -1;
+        mSize--;
+    }
+
+    /**
+     * Removes the nodes whose deadline has passed
+     *
+     * @param nowMillis current time
+     * @return chain of expired nodes, iterated with {@link Node#nextExpired()}, or <code>null</code>
+     */
+    @Nullable
+    Node expire(long nowMillis) {
+        final long nowTick = nowMillis / mTickMillis;
+        if (mLastTick < 0 || nowTick <= mLastTick) {
+            return null;
+        }
+
+        Node expired = null;
+        final long ticks = Math.min(nowTick - mLastTick, mSlots.length);
+        for (long t = 1; t <= ticks; t++) {
+            final int slot = (int) ((mLastTick + t) & (mSlots.length - 1));
+            Node node = mSlots[slot];
+            while (node != null) {
+                final Node next = node.mNext;
+                // nodes further than a full turn stay for the next rounds
+                if (node.mDeadline <= nowMillis) {
+                    cancel(node);
+                    node.mNext = expired;
+                    expired = node;
+                }
+                node = next;
+            }
+        }
+        mLastTick = nowTick;
+        return expired;
+    }
+
+    boolean isEmpty() {
+        return mSize == 0;
+    }
+}
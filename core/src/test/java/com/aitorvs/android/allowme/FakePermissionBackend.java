@@ -0,0 +1,200 @@
+package com.aitorvs.android.allowme;
+
+/*
+ * Copyright (C) 17/10/26 aitorvs
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import android.support.annotation.NonNull;
+
+import java.util.ArrayDeque;
+
+/**
+ * Stands in for the Android permission system on the JVM: permissions in the granted set are
+ * reported as granted, any other as denied. Prompts are answered right away and posted tasks run
+ * on {@link #runPosted()}.
+ * <p>
+ * Shared by the core tests and the benchmark module.
+ */
+public class FakePermissionBackend implements PermissionBackend {
+
+    private long mGranted;
+    private long mRationale;
+    private boolean mAttached = true;
+    private boolean mPromptAnswer = true;
+    private int mPromptCount;
+    private int mRequestCount;
+    private String[] mLastPermissions;
+    private int mLastRequestCode;
+    private long mUptimeMillis;
+    private final ArrayDeque<Runnable> mPosted = new ArrayDeque<>();
+
+    public void grant(@NonNull String permission) {
+        mGranted |= PermissionRegistry.bitOf(permission);
+    }
+
+    public void revoke(@NonNull String permission) {
+        mGranted &= ~PermissionRegistry.bitOf(permission);
+    }
+
+    public void setShowRationale(@NonNull String permission, boolean showRationale) {
+        if (showRationale) {
+            mRationale |= PermissionRegistry.bitOf(permission);
+        } else {
+            mRationale &= ~PermissionRegistry.bitOf(permission);
+        }
+    }
+
+    /**
+     * @param attached <code>false</code> to act as a backend whose activity went away, system
+     *                 requests are then refused
+     */
+    public void setAttached(boolean attached) {
+        mAttached = attached;
+    }
+
+    /**
+     * @param accepted answer given to every prompt
+     */
+    public void setPromptAnswer(boolean accepted) {
+        mPromptAnswer = accepted;
+    }
+
+    public int checkSelfPermission(@NonNull String permission) {
+        return isPermissionGranted(permission)
+                ? PermissionResultSet.PERMISSION_GRANTED
+                : PermissionResultSet.PERMISSION_DENIED;
+    }
+
+    @Override
+    public boolean isPermissionGranted(@NonNull String permission) {
+        return (mGranted & PermissionRegistry.bitOf(permission)) != 0;
+    }
+
+    @Override
+    public boolean isAttached() {
+        return mAttached;
+    }
+
+    @Override
+    public boolean shouldShowRationale(@NonNull String permission) {
+        return (mRationale & PermissionRegistry.bitOf(permission)) != 0;
+    }
+
+    @Override
+    public long queryState(@NonNull PermissionSet permissions) {
+        long state = 0;
+        for (int i = 0; i < permissions.size(); i++) {
+            final long bit = 1L << permissions.getId(i);
+            if ((mGranted & bit) != 0) {
+                state |= PermissionSet.grantedBit(i);
+            } else if ((mRationale & bit) != 0) {
+                state |= PermissionSet.rationaleBit(i);
+            }
+        }
+        return state;
+    }
+
+    @Override
+    public String getPermissionGroup(@NonNull String permission) {
+        return null;
+    }
+
+    /**
+     * Records the request as the system would before showing its dialog
+     */
+    @Override
+    public boolean requestPermissions(@NonNull String[] permissions, int requestCode) {
+        if (!mAttached) {
+            return false;
+        }
+        mLastPermissions = permissions;
+        mLastRequestCode = requestCode;
+        mRequestCount++;
+        return true;
+    }
+
+    @Override
+    public void showPrompt(int prompt,
+                           @NonNull String[] permissions,
+                           @NonNull PromptMessage message,
+                           int themeId,
+                           @NonNull PromptListener listener) {
+        mPromptCount++;
+        listener.onPromptAnswered(mPromptAnswer);
+    }
+
+    @Override
+    public void postDelayed(@NonNull Runnable task, long delayMillis) {
+        mPosted.add(task);
+    }
+
+    @Override
+    public long uptimeMillis() {
+        return mUptimeMillis;
+    }
+
+    /**
+     * Moves the clock forward
+     */
+    public void advance(long millis) {
+        mUptimeMillis += millis;
+    }
+
+    /**
+     * Runs the tasks posted so far, whatever their delay
+     */
+    public void runPosted() {
+        for (int i = mPosted.size(); i > 0; i--) {
+            mPosted.poll().run();
+        }
+    }
+
+    /**
+     * Fills the grant results of the last request, as the user would answer them
+     *
+     * @param grantResults grant results, same length as the requested permissions
+     */
+    public void answer(@NonNull int[] grantResults) {
+        for (int i = 0; i < mLastPermissions.length; i++) {
+            grantResults[i] = checkSelfPermission(mLastPermissions[i]);
+        }
+    }
+
+    /**
+     * @return grant results of the last request, as the user would answer them
+     */
+    @NonNull
+    public int[] answer() {
+        final int[] grantResults = new int[mLastPermissions.length];
+        answer(grantResults);
+        return grantResults;
+    }
+
+    public String[] getLastPermissions() {
+        return mLastPermissions;
+    }
+
+    public int getLastRequestCode() {
+        return mLastRequestCode;
+    }
+
+    public int getRequestCount() {
+        return mRequestCount;
+    }
+
+    public int getPromptCount() {
+        return mPromptCount;
+    }
+}
@@ -0,0 +1,123 @@
+package com.aitorvs.android.allowme;
+
+/*
+ * Copyright (C) 17/10/26 aitorvs
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class GrantStateTrackerTest {
+
+    private static final String CAMERA = "android.permission.CAMERA";
+    private static final String CONTACTS = "android.permission.READ_CONTACTS";
+
+    private long mCamera;
+    private long mContacts;
+    private GrantStateTracker mTracker;
+
+    @Before
+    public void setUp() {
+        mCamera = PermissionRegistry.bitOf(CAMERA);
+        mContacts = PermissionRegistry.bitOf(CONTACTS);
+        mTracker = new GrantStateTracker();
+    }
+
+    @Test
+    public void firstSnapshotIsTheBaseline() {
+        assertNull(mTracker.publish(mCamera | mContacts, mCamera));
+        assertNull(mTracker.publish(mCamera | mContacts, mCamera));
+    }
+
+    @Test
+    public void changesAreSplitIntoGrantedAndRevoked() {
+        mTracker.publish(mCamera | mContacts, mCamera);
+        final PermissionChanges changes = mTracker.publish(mCamera | mContacts, mContacts);
+
+        assertTrue(changes.wasGranted(CONTACTS));
+        assertTrue(changes.wasRevoked(CAMERA));
+        assertFalse(changes.wasGranted(CAMERA));
+        assertArrayEquals(new String[]{CONTACTS}, changes.getGranted());
+        assertArrayEquals(new String[]{CAMERA}, changes.getRevoked());
+        assertFalse(changes.wasGranted("android.permission.NEVER_SEEN"));
+    }
+
+    @Test
+    public void onlyPermissionsCheckedTwiceAreDiffed() {
+        mTracker.publish(mCamera, 0);
+        final PermissionChanges changes = mTracker.publish(mCamera | mContacts, mCamera | mContacts);
+
+        assertEquals(mCamera, changes.getGrantedMask());
+        // partial snapshots keep the state of the permissions they didn't check
+        assertNull(mTracker.publish(mContacts, mContacts));
+        assertNull(mTracker.publish(mCamera, mCamera));
+    }
+
+    @Test
+    public void subscribersOnlyHearAboutTheirPermissions() {
+        final Listener camera = new Listener();
+        final Listener all = new Listener();
+        assertTrue(mTracker.subscribe(PermissionSet.of(CAMERA), camera));
+        assertFalse(mTracker.subscribe(null, all));
+
+        mTracker.publish(mCamera | mContacts, 0);
+        final PermissionChanges changes = mTracker.publish(mCamera | mContacts, mContacts);
+        assertEquals(0, camera.mCalls);
+        assertEquals(1, all.mCalls);
+        assertSame(changes, all.mChanges);
+
+        mTracker.publish(mCamera | mContacts, mCamera | mContacts);
+        assertEquals(1, camera.mCalls);
+        assertEquals(2, all.mCalls);
+    }
+
+    @Test
+    public void resetDropsTheBaseline() {
+        mTracker.publish(mCamera, 0);
+        mTracker.reset();
+
+        assertNull(mTracker.publish(mCamera, mCamera));
+    }
+
+    @Test
+    public void unsubscribedListenersAreNotNotified() {
+        final Listener listener = new Listener();
+        mTracker.subscribe(null, listener);
+        mTracker.unsubscribe(listener);
+        assertFalse(mTracker.hasSubscribers());
+
+        mTracker.publish(mCamera, 0);
+        mTracker.publish(mCamera, mCamera);
+        assertEquals(0, listener.mCalls);
+    }
+
+    private static final class Listener implements PermissionChangeListener {
+        int mCalls;
+        PermissionChanges mChanges;
+
+        @Override
+        public void onPermissionsChanged(PermissionChanges changes) {
+            mCalls++;
+            mChanges = changes;
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package com.aitorvs.android.allowme;
+
+/*
+ * Copyright (C) 17/10/26 aitorvs
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class InFlightRequestsTest {
+
+    @Test
+    public void resultsAreSplitAcrossWaiters() {
+        final InFlightRequests inFlight = new InFlightRequests();
+        // request 1 asks for 0x3, request 2 waits for the 0x2 result and asks for 0x4 itself
+        inFlight.await(1, 0x3, 0, 0);
+        inFlight.addFlight(1, 0x3);
+        inFlight.await(2, 0x6, 0, 0);
+        inFlight.addFlight(2, 0x4);
+        assertEquals(0x7, inFlight.getPermissions());
+
+        final RequestBatch completed = new RequestBatch();
+        assertTrue(inFlight.resolve(1, 0x3, 0x2, completed));
+        assertEquals(1, completed.size());
+        assertEquals(1, completed.getRequestCode(0));
+        assertEquals(0x2, completed.getGranted(0));
+
+        completed.clear();
+        assertTrue(inFlight.resolve(2, 0x4, 0x4, completed));
+        assertEquals(1, completed.size());
+        assertEquals(2, completed.getRequestCode(0));
+        assertEquals(0x6, completed.getGranted(0));
+        assertEquals(0, inFlight.getPermissions());
+    }
+
+    @Test
+    public void resolvedUpFrontPermissionsAreNotWaitedFor() {
+        final InFlightRequests inFlight = new InFlightRequests();
+        inFlight.await(1, 0x3, 0x1, 0x1);
+        inFlight.addFlight(1, 0x2);
+
+        final RequestBatch completed = new RequestBatch();
+        assertTrue(inFlight.resolve(1, 0x2, 0, completed));
+        assertEquals(1, completed.size());
+        assertEquals(0x1, completed.getGranted(0));
+    }
+
+    @Test
+    public void unknownResultsAreNotResolved() {
+        final InFlightRequests inFlight = new InFlightRequests();
+        inFlight.await(1, 0x1, 0, 0);
+        inFlight.addFlight(1, 0x1);
+
+        final RequestBatch completed = new RequestBatch();
+        assertFalse(inFlight.resolve(2, 0x1, 0x1, completed));
+        assertFalse(inFlight.resolve(1, 0x3, 0x1, completed));
+        assertEquals(0, completed.size());
+        assertTrue(inFlight.hasFlight(1, 0x1));
+    }
+
+    @Test
+    public void findFlightReturnsTheOldestOfTheCode() {
+        final InFlightRequests inFlight = new InFlightRequests();
+        inFlight.addFlight(1, 0x1);
+        inFlight.addFlight(1, 0x2);
+
+        assertEquals(0x1, inFlight.findFlight(1));
+        assertEquals(0, inFlight.findFlight(2));
+        assertTrue(inFlight.removeFlight(1, 0x1));
+        assertFalse(inFlight.removeFlight(1, 0x1));
+        assertEquals(0x2, inFlight.findFlight(1));
+    }
+
+    @Test
+    public void detachDropsFlightsNobodyWaitsFor() {
+        final InFlightRequests inFlight = new InFlightRequests();
+        inFlight.await(1, 0x1, 0, 0);
+        inFlight.addFlight(1, 0x1);
+        inFlight.await(2, 0x3, 0, 0);
+        inFlight.addFlight(2, 0x2);
+
+        inFlight.detach(2, 0x3);
+        assertFalse(inFlight.hasFlight(2, 0x2));
+        assertTrue(inFlight.hasFlight(1, 0x1));
+        assertEquals(0x1, inFlight.getPermissions());
+    }
+
+    @Test
+    public void abortDropsWaitersLeftWithoutAnAnswer() {
+        final InFlightRequests inFlight = new InFlightRequests();
+        inFlight.await(1, 0x1, 0, 0);
+        inFlight.await(2, 0x3, 0, 0);
+        inFlight.await(3, 0x4, 0, 0);
+        inFlight.addFlight(1, 0x3);
+
+        // 0x4 is still batched, request 3 keeps waiting
+        final RequestBatch requests = new RequestBatch();
+        inFlight.abort(1, 0x3, 0x4, requests);
+        assertEquals(2, requests.size());
+        assertEquals(1, requests.getRequestCode(0));
+        assertEquals(2, requests.getRequestCode(1));
+        assertEquals(0, inFlight.getPermissions());
+
+        requests.clear();
+        inFlight.addFlight(3, 0x4);
+        assertTrue(inFlight.resolve(3, 0x4, 0, requests));
+        assertEquals(1, requests.size());
+        assertEquals(3, requests.getRequestCode(0));
+    }
+
+    @Test
+    public void growsPastItsInitialCapacity() {
+        final InFlightRequests inFlight = new InFlightRequests();
+        for (int i = 0; i < 20; i++) {
+            inFlight.await(i, 1L << i, 0, 0);
+            inFlight.addFlight(i, 1L << i);
+        }
+        final RequestBatch completed = new RequestBatch();
+        for (int i = 0; i < 20; i++) {
+            completed.clear();
+            assertTrue(inFlight.resolve(i, 1L << i, 1L << i, completed));
+            assertEquals(1, completed.size());
+        }
+        assertEquals(0, inFlight.getPermissions());
+    }
+}
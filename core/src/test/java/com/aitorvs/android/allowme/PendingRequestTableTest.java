@@ -0,0 +1,143 @@
+package com.aitorvs.android.allowme;
+
+/*
+ * Copyright (C) 17/10/26 aitorvs
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class PendingRequestTableTest {
+
+    private static final AllowMeCallback CALLBACK = new AllowMeCallback() {
+        @Override
+        public void onPermissionResult(int requestCode, PermissionResultSet results) {
+        }
+    };
+
+    @Test
+    public void addReportsFirstCallbackOnly() {
+        final PendingRequestTable table = new PendingRequestTable();
+        assertTrue(table.add(1, 0x3, CALLBACK));
+        assertFalse(table.add(1, 0x3, CALLBACK));
+        assertTrue(table.add(1, 0x1, null));
+        assertTrue(table.add(2, 0x3, null));
+
+        assertEquals(3, table.size());
+        assertEquals(2, table.get(1, 0x3).size());
+        assertEquals(0, table.get(1, 0x1).size());
+    }
+
+    @Test
+    public void takeRemovesTheRequest() {
+        final PendingRequestTable table = new PendingRequestTable();
+        table.add(1, 0x3, CALLBACK);
+
+        final PendingRequestTable.CallbackList callbacks = table.take(1, 0x3);
+        assertNotNull(callbacks);
+        assertEquals(1, callbacks.getRequestCode());
+        assertEquals(0x3, callbacks.getPermissions());
+        assertNull(table.take(1, 0x3));
+        assertNull(table.get(1, 0x3));
+        assertEquals(0, table.size());
+    }
+
+    @Test
+    public void recycledListsAreReusedCleared() {
+        final PendingRequestTable table = new PendingRequestTable();
+        table.add(1, 0x3, CALLBACK);
+        final PendingRequestTable.CallbackList callbacks = table.take(1, 0x3);
+        callbacks.setStartNanos(7);
+        table.recycle(callbacks);
+
+        table.add(2, 0x4, null);
+        final PendingRequestTable.CallbackList reused = table.get(2, 0x4);
+        assertSame(callbacks, reused);
+        assertEquals(0, reused.size());
+        assertEquals(0, reused.getStartNanos());
+        assertNull(reused.getFuture());
+    }
+
+    @Test
+    public void removalKeepsCollidingKeysReachable() {
+        // keys sharing a home slot form a single probe sequence, removing the head of it must
+        // shift the others back
+        final int capacity = 8;
+        final int home = PendingRequestTable.hash(1, 1) & (capacity - 1);
+        final int[] codes = new int[3];
+        int found = 0;
+        for (int code = 1; found < codes.length; code++) {
+            if ((PendingRequestTable.hash(code, 1) & (capacity - 1)) == home) {
+                codes[found++] = code;
+            }
+        }
+
+        final PendingRequestTable table = new PendingRequestTable();
+        for (int code : codes) {
+            table.add(code, 1, null);
+        }
+        assertNotNull(table.take(codes[0], 1));
+        assertNotNull(table.get(codes[1], 1));
+        assertNotNull(table.get(codes[2], 1));
+        assertNotNull(table.take(codes[1], 1));
+        assertNotNull(table.get(codes[2], 1));
+        assertEquals(1, table.size());
+    }
+
+    @Test
+    public void matchesMapUnderRandomOperations() {
+        final Random random = new Random(42);
+        final PendingRequestTable table = new PendingRequestTable();
+        final Map<Long, Integer> model = new HashMap<>();
+        for (int i = 0; i < 20000; i++) {
+            final int code = random.nextInt(32);
+            final long mask = 1L << random.nextInt(4);
+            final Long key = ((long) code << 8) | mask;
+            if (random.nextBoolean()) {
+                final boolean added = table.add(code, mask, CALLBACK);
+                assertEquals(!model.containsKey(key), added);
+                final Integer callbacks = model.get(key);
+                model.put(key, callbacks == null ? 1 : callbacks + 1);
+            } else {
+                final PendingRequestTable.CallbackList callbacks = table.take(code, mask);
+                final Integer expected = model.remove(key);
+                if (expected == null) {
+                    assertNull(callbacks);
+                } else {
+                    assertNotNull(callbacks);
+                    assertEquals((int) expected, callbacks.size());
+                    table.recycle(callbacks);
+                }
+            }
+            assertEquals(model.size(), table.size());
+        }
+
+        for (Map.Entry<Long, Integer> entry : model.entrySet()) {
+            final int code = (int) (entry.getKey() >>> 8);
+            final long mask = entry.getKey() & 0xff;
+            assertEquals((int) entry.getValue(), table.get(code, mask).size());
+        }
+    }
+}
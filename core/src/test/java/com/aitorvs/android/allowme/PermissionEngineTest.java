@@ -0,0 +1,381 @@
+package com.aitorvs.android.allowme;
+
+/*
+ * Copyright (C) 17/10/26 aitorvs
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import android.support.annotation.NonNull;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class PermissionEngineTest {
+
+    private static final String CAMERA = "android.permission.CAMERA";
+    private static final String CONTACTS = "android.permission.READ_CONTACTS";
+    private static final String LOCATION = "android.permission.ACCESS_FINE_LOCATION";
+
+    private FakePermissionBackend mBackend;
+    private PermissionStateStore mStates;
+    private PermissionEngine mEngine;
+
+    @Before
+    public void setUp() {
+        mBackend = new FakePermissionBackend();
+        mStates = new PermissionStateStore();
+        mEngine = new PermissionEngine(mBackend, new PermissionMetrics(), mStates);
+    }
+
+    @Test
+    public void grantedPermissionsAreLeftOutOfTheRequest() {
+        mBackend.grant(CAMERA);
+        final Recorder recorder = new Recorder();
+        mEngine.request(recorder, null, 1, new String[]{CAMERA, CONTACTS}, null, null, 0);
+
+        assertArrayEquals(new String[]{CONTACTS}, mBackend.getLastPermissions());
+        assertTrue(mEngine.dispatchResult(1, new String[]{CONTACTS}, mBackend.answer()));
+        assertEquals(1, recorder.mCalls);
+        assertEquals(2, recorder.mResults.size());
+        assertTrue(recorder.mResults.isGranted(CAMERA));
+        assertFalse(recorder.mResults.isGranted(CONTACTS));
+        assertEquals(0, mEngine.getPendingRequests());
+    }
+
+    @Test
+    public void grantedRequestsCompleteWithoutAskingTheSystem() throws Exception {
+        mBackend.grant(CAMERA);
+        final Recorder recorder = new Recorder();
+        final PermissionFuture<PermissionResultSet> future = new PermissionFuture<>();
+        mEngine.request(recorder, future, 1, new String[]{CAMERA}, PromptMessage.of("priming"), null, 0);
+
+        assertEquals(0, mBackend.getRequestCount());
+        assertEquals(1, recorder.mCalls);
+        assertTrue(recorder.mResults.allGranted());
+        assertTrue(future.get().allGranted());
+    }
+
+    @Test
+    public void failedSystemRequestsDontLeaveTheirFlightBehind() {
+        final FakePermissionBackend backend = new FakePermissionBackend() {
+            private boolean mFailed;
+
+            @Override
+            public boolean requestPermissions(@NonNull String[] permissions, int requestCode) {
+                if (!mFailed) {
+                    mFailed = true;
+                    throw new IllegalStateException("Ooops!! Activity not registered (?)");
+                }
+                return super.requestPermissions(permissions, requestCode);
+            }
+        };
+        final PermissionEngine engine = new PermissionEngine(backend);
+        final PermissionFuture<PermissionResultSet> future = new PermissionFuture<>();
+        try {
+            engine.request(null, future, 1, new String[]{CAMERA}, null, null, 0);
+            fail();
+        } catch (IllegalStateException expected) {
+            assertTrue(future.isCancelled());
+        }
+
+        // asked again under another code instead of waiting for the failed request
+        engine.request(new Recorder(), null, 2, new String[]{CAMERA}, null, null, 0);
+        assertEquals(1, backend.getRequestCount());
+        assertEquals(1, engine.getPendingRequests());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void requestsWithoutActivityFail() {
+        mBackend.setAttached(false);
+        mEngine.request(null, null, 1, new String[]{CAMERA}, null, null, 0);
+    }
+
+    @Test
+    public void batchesFailingToFlushAreSentOnResume() {
+        mEngine.setBatchWindow(PermissionEngine.BATCH_NEXT_FRAME);
+        final Recorder recorder = new Recorder();
+        mEngine.request(recorder, null, 1, new String[]{CAMERA}, null, null, 0);
+        mBackend.setAttached(false);
+        mBackend.runPosted();
+        assertEquals(0, mBackend.getRequestCount());
+
+        mBackend.setAttached(true);
+        mEngine.resume();
+        mBackend.runPosted();
+        assertEquals(1, mBackend.getRequestCount());
+        mEngine.dispatchResult(1, new String[]{CAMERA}, mBackend.answer());
+        assertEquals(1, recorder.mCalls);
+    }
+
+    @Test
+    public void sharedPermissionsAreRequestedOnce() {
+        final Recorder first = new Recorder();
+        final Recorder second = new Recorder();
+        mEngine.request(first, null, 1, new String[]{CAMERA}, null, null, 0);
+        mEngine.request(second, null, 2, new String[]{CAMERA, CONTACTS}, null, null, 0);
+
+        // the second request only asks for what the first doesn't
+        assertEquals(2, mBackend.getRequestCount());
+        assertArrayEquals(new String[]{CONTACTS}, mBackend.getLastPermissions());
+
+        mBackend.grant(CAMERA);
+        mEngine.dispatchResult(1, new String[]{CAMERA}, new int[]{PermissionResultSet.PERMISSION_GRANTED});
+        assertEquals(1, first.mCalls);
+        assertEquals(0, second.mCalls);
+
+        mEngine.dispatchResult(2, new String[]{CONTACTS}, new int[]{PermissionResultSet.PERMISSION_DENIED});
+        assertEquals(1, second.mCalls);
+        assertEquals(2, second.mRequestCode);
+        assertTrue(second.mResults.isGranted(CAMERA));
+        assertFalse(second.mResults.isGranted(CONTACTS));
+    }
+
+    @Test
+    public void emptyResultsCancelTheRequest() {
+        final PermissionFuture<PermissionResultSet> future =
+                mEngine.requestAsync(1, new String[]{CAMERA}, null, null, 0);
+
+        assertTrue(mEngine.dispatchResult(1, new String[0], new int[0]));
+        assertTrue(future.isCancelled());
+        assertEquals(PermissionEngine.STATE_NEVER_ASKED, mEngine.getPermissionState(CAMERA));
+    }
+
+    @Test
+    public void unknownResultsAreDropped() {
+        assertFalse(mEngine.dispatchResult(1, new String[]{CAMERA}, new int[]{PermissionResultSet.PERMISSION_DENIED}));
+    }
+
+    @Test
+    public void expiredRequestsAreEvicted() {
+        mEngine.setPendingRequestTimeout(2000);
+        mEngine.setBatchWindow(PermissionEngine.BATCH_NEXT_FRAME);
+        final PermissionFuture<PermissionResultSet> future =
+                mEngine.requestAsync(1, new String[]{CAMERA}, null, null, 0);
+        mBackend.setAttached(false);
+        assertEquals(1, mEngine.getPendingRequests());
+
+        mBackend.advance(3000);
+        mBackend.runPosted();
+        assertTrue(future.isCancelled());
+        assertEquals(0, mEngine.getPendingRequests());
+    }
+
+    @Test
+    public void requestsWaitingForTheSystemDialogAreNotEvicted() {
+        mEngine.setPendingRequestTimeout(2000);
+        final PermissionFuture<PermissionResultSet> future =
+                mEngine.requestAsync(1, new String[]{CAMERA}, null, null, 0);
+
+        mBackend.advance(3000);
+        mBackend.runPosted();
+        assertFalse(future.isDone());
+        assertEquals(1, mEngine.getPendingRequests());
+
+        mBackend.grant(CAMERA);
+        assertTrue(mEngine.dispatchResult(1, new String[]{CAMERA}, mBackend.answer()));
+        assertTrue(future.isDone());
+        assertEquals(0, mEngine.getPendingRequests());
+    }
+
+    @Test
+    public void requestsWithinTheBatchWindowAreSentTogether() {
+        mEngine.setBatchWindow(PermissionEngine.BATCH_NEXT_FRAME);
+        final Recorder first = new Recorder();
+        final Recorder second = new Recorder();
+        mEngine.request(first, null, 1, new String[]{CAMERA}, null, null, 0);
+        mEngine.request(second, null, 2, new String[]{CONTACTS}, null, null, 0);
+        assertEquals(0, mBackend.getRequestCount());
+
+        mBackend.runPosted();
+        assertEquals(1, mBackend.getRequestCount());
+        assertEquals(PermissionEngine.BATCH_REQUEST_CODE, mBackend.getLastRequestCode());
+        assertArrayEquals(new String[]{CAMERA, CONTACTS}, sorted(mBackend.getLastPermissions()));
+
+        mBackend.grant(CONTACTS);
+        final String[] sent = mBackend.getLastPermissions();
+        mEngine.dispatchResult(PermissionEngine.BATCH_REQUEST_CODE, sent, mBackend.answer());
+        assertEquals(1, first.mCalls);
+        assertEquals(1, first.mResults.size());
+        assertFalse(first.mResults.isGranted(CAMERA));
+        assertEquals(1, second.mCalls);
+        assertTrue(second.mResults.allGranted());
+    }
+
+    @Test
+    public void singleBatchedRequestKeepsItsRequestCode() {
+        mEngine.setBatchWindow(PermissionEngine.BATCH_NEXT_FRAME);
+        mEngine.request(new Recorder(), null, 7, new String[]{CAMERA}, null, null, 0);
+        mBackend.runPosted();
+
+        assertEquals(7, mBackend.getLastRequestCode());
+    }
+
+    @Test
+    public void declinedPrimingDropsTheRequest() {
+        mBackend.setPromptAnswer(false);
+        final PermissionFuture<PermissionResultSet> future =
+                mEngine.requestAsync(1, new String[]{CAMERA}, PromptMessage.of("priming"), null, 0);
+
+        assertTrue(future.isCancelled());
+        assertEquals(0, mBackend.getRequestCount());
+        assertEquals(0, mEngine.getPendingRequests());
+    }
+
+    @Test
+    public void eachAwaiterGetsItsOwnFuture() throws Exception {
+        final PermissionFuture<PermissionResultSet> first =
+                mEngine.requestAsync(1, new String[]{LOCATION}, null, null, 0);
+        final PermissionFuture<PermissionResultSet> second =
+                mEngine.requestAsync(1, new String[]{LOCATION}, null, null, 0);
+        assertNotSame(first, second);
+        assertEquals(1, mBackend.getRequestCount());
+
+        first.cancel(false);
+        mBackend.grant(LOCATION);
+        mEngine.dispatchResult(1, new String[]{LOCATION}, mBackend.answer());
+        assertTrue(first.isCancelled());
+        assertTrue(second.get().allGranted());
+    }
+
+    @Test
+    public void permissionsDeniedForeverAreNotRequestedAgain() {
+        final Recorder recorder = new Recorder();
+        mEngine.request(recorder, null, 1, new String[]{CAMERA}, null, null, 0);
+        mEngine.dispatchResult(1, new String[]{CAMERA}, mBackend.answer());
+        assertEquals(PermissionEngine.STATE_DENIED_FOREVER, mEngine.getPermissionState(CAMERA));
+
+        mEngine.request(recorder, null, 1, new String[]{CAMERA}, null, null, 0);
+        assertEquals(1, mBackend.getRequestCount());
+        assertEquals(2, recorder.mCalls);
+        assertFalse(recorder.mResults.isGranted(CAMERA));
+
+        // e.g. allowed again from the Settings app
+        mStates.reprobe();
+        mEngine.request(recorder, null, 1, new String[]{CAMERA}, null, null, 0);
+        assertEquals(2, mBackend.getRequestCount());
+    }
+
+    @Test
+    public void deniedForeverPermissionsAreResolvedUpFront() {
+        mEngine.request(null, null, 1, new String[]{CAMERA}, null, null, 0);
+        mEngine.dispatchResult(1, new String[]{CAMERA}, mBackend.answer());
+
+        mEngine.request(null, null, 2, new String[]{CAMERA, CONTACTS}, null, null, 0);
+        assertArrayEquals(new String[]{CONTACTS}, mBackend.getLastPermissions());
+    }
+
+    @Test
+    public void denialWithRationaleCanBeAskedAgain() {
+        mBackend.setShowRationale(CAMERA, true);
+        mEngine.request(null, null, 1, new String[]{CAMERA}, null, null, 0);
+        mEngine.dispatchResult(1, new String[]{CAMERA}, mBackend.answer());
+        assertEquals(PermissionEngine.STATE_DENIED, mEngine.getPermissionState(CAMERA));
+
+        mEngine.request(null, null, 1, new String[]{CAMERA}, null, null, 0);
+        assertEquals(2, mBackend.getRequestCount());
+    }
+
+    @Test
+    public void denialWithoutActivityIsNotDeniedForever() {
+        mEngine.request(null, null, 1, new String[]{CAMERA}, null, null, 0);
+        mBackend.setAttached(false);
+        mEngine.dispatchResult(1, new String[]{CAMERA}, mBackend.answer());
+
+        assertEquals(PermissionEngine.STATE_DENIED, mEngine.getPermissionState(CAMERA));
+    }
+
+    @Test
+    public void metricsCountEveryCompletion() {
+        final MetricsRecorder metrics = new MetricsRecorder();
+        mEngine.setMetricsListener(metrics);
+        mBackend.grant(CAMERA);
+        mEngine.request(new Recorder(), new PermissionFuture<PermissionResultSet>(), 1,
+                new String[]{CAMERA}, null, null, 0);
+        mEngine.request(new Recorder(), null, 2, new String[]{CONTACTS}, null, null, 0);
+        mEngine.dispatchResult(2, new String[]{CONTACTS}, mBackend.answer());
+
+        assertEquals(2, metrics.mCompleted);
+        assertEquals(3, metrics.mCallbacks);
+        final PermissionMetrics.Snapshot snapshot = mEngine.getMetricsSnapshot();
+        assertEquals(2, snapshot.getRequests());
+        assertEquals(2, snapshot.getCompletedRequests());
+        assertEquals(0, snapshot.getPendingRequests());
+        assertEquals(1, snapshot.getGrantedCount(CAMERA));
+        assertEquals(1, snapshot.getDeniedCount(CONTACTS));
+    }
+
+    @Test
+    public void rationaleIsShownForDeniedPermissions() {
+        mBackend.setShowRationale(CAMERA, true);
+        mEngine.request(null, null, 1, new String[]{CAMERA}, null, PromptMessage.of("rationale"), 0);
+
+        assertEquals(1, mBackend.getPromptCount());
+        assertEquals(1, mBackend.getRequestCount());
+    }
+
+    private static String[] sorted(String[] permissions) {
+        final String[] sorted = permissions.clone();
+        Arrays.sort(sorted);
+        return sorted;
+    }
+
+    private static final class Recorder implements AllowMeCallback {
+        int mCalls;
+        int mRequestCode;
+        PermissionResultSet mResults;
+
+        @Override
+        public void onPermissionResult(int requestCode, PermissionResultSet results) {
+            mCalls++;
+            mRequestCode = requestCode;
+            mResults = results;
+        }
+    }
+
+    private static final class MetricsRecorder implements PermissionMetrics.Listener {
+        int mCompleted;
+        int mCallbacks;
+
+        @Override
+        public void onRequestCompleted(int requestCode, long latencyNanos) {
+            mCompleted++;
+        }
+
+        @Override
+        public void onPromptAnswered(int prompt, boolean accepted, long durationNanos) {
+        }
+
+        @Override
+        public void onDispatch(int requestCode, int callbacks, int pendingRequests) {
+            mCallbacks += callbacks;
+        }
+
+        @Override
+        public void onRequestCoalesced(int requestCode) {
+        }
+
+        @Override
+        public void onRequestDropped(int requestCode) {
+        }
+    }
+}
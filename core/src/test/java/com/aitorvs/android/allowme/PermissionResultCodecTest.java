@@ -0,0 +1,119 @@
+package com.aitorvs.android.allowme;
+
+/*
+ * Copyright (C) 17/10/26 aitorvs
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class PermissionResultCodecTest {
+
+    private static final String CAMERA = "android.permission.CAMERA";
+    private static final String CONTACTS = "android.permission.READ_CONTACTS";
+    private static final String SMS = "android.permission.SEND_SMS";
+
+    private static PermissionResultSet results() {
+        return PermissionResultSet.create(new String[]{SMS, CAMERA, CONTACTS}, new int[]{
+                PermissionResultSet.PERMISSION_GRANTED,
+                PermissionResultSet.PERMISSION_DENIED,
+                PermissionResultSet.PERMISSION_GRANTED});
+    }
+
+    @Test
+    public void roundTripKeepsOrderAndGrants() {
+        final PermissionResultSet results = results();
+        final PermissionResultSet decoded = PermissionResultSet.fromByteArray(results.toByteArray());
+
+        assertArrayEquals(results.getPermissions(), decoded.getPermissions());
+        assertEquals(results.getGrantedMask(), decoded.getGrantedMask());
+        assertEquals(results.getRequestedMask(), decoded.getRequestedMask());
+        assertTrue(decoded.isGrantedAt(0));
+        assertFalse(decoded.isGrantedAt(1));
+    }
+
+    @Test
+    public void viewReadsTheEncodedGrants() {
+        final PermissionResultView view = PermissionResultView.wrap(results().toByteArray());
+
+        assertEquals(3, view.size());
+        assertEquals(SMS, view.getPermission(0));
+        assertEquals(CONTACTS, view.getPermission(2));
+        assertTrue(view.isGrantedAt(0));
+        assertFalse(view.isGrantedAt(1));
+        assertTrue(view.isGranted(CONTACTS));
+        assertTrue(view.isGranted(PermissionRegistry.handleOf(SMS)));
+        assertFalse(view.isGranted(CAMERA));
+        assertFalse(view.isGranted("android.permission.NEVER_REQUESTED"));
+        assertFalse(view.allGranted());
+    }
+
+    @Test
+    public void permissionsAreEncodedByName() {
+        // as written by another process, which interned the permission first
+        final String permission = "com.example.permission.FROM_ANOTHER_PROCESS";
+        final byte[] data = PermissionResultCodec.encode(new String[]{CAMERA, permission}, 0x2);
+
+        final PermissionResultView view = PermissionResultView.wrap(data);
+        assertEquals(permission, view.getPermission(1));
+        assertFalse(view.isGranted(CAMERA));
+        assertTrue(view.isGranted(permission));
+        assertTrue(view.toResultSet().isGranted(permission));
+    }
+
+    @Test
+    public void emptyResultSetIsNotAllGranted() {
+        final byte[] data = PermissionResultSet.create(new String[0], new int[0]).toByteArray();
+
+        assertEquals(0, PermissionResultView.wrap(data).size());
+        assertFalse(PermissionResultView.wrap(data).allGranted());
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void viewChecksIndexes() {
+        PermissionResultView.wrap(results().toByteArray()).getPermission(3);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void otherVersionsAreRejected() {
+        final byte[] data = results().toByteArray();
+        data[0] = PermissionResultCodec.VERSION + 1;
+        PermissionResultSet.fromByteArray(data);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void truncatedDataIsRejected() {
+        final byte[] data = results().toByteArray();
+        final byte[] truncated = new byte[data.length - 1];
+        System.arraycopy(data, 0, truncated, 0, truncated.length);
+        PermissionResultView.wrap(truncated);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void wrongCountIsRejected() {
+        final byte[] data = results().toByteArray();
+        data[PermissionResultCodec.OFFSET_COUNT] = 4;
+        PermissionResultView.wrap(data);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void emptyDataIsRejected() {
+        PermissionResultView.wrap(new byte[0]);
+    }
+}
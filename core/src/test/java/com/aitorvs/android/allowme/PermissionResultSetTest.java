@@ -0,0 +1,109 @@
+package com.aitorvs.android.allowme;
+
+/*
+ * Copyright (C) 17/10/26 aitorvs
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class PermissionResultSetTest {
+
+    private static final String CAMERA = "android.permission.CAMERA";
+    private static final String CONTACTS = "android.permission.READ_CONTACTS";
+    private static final String SMS = "android.permission.SEND_SMS";
+
+    @Test
+    public void keepsTheRequestOrder() {
+        final PermissionResultSet results = PermissionResultSet.create(new String[]{SMS, CAMERA},
+                new int[]{PermissionResultSet.PERMISSION_DENIED, PermissionResultSet.PERMISSION_GRANTED});
+
+        assertEquals(2, results.size());
+        assertArrayEquals(new String[]{SMS, CAMERA}, results.getPermissions());
+        assertEquals(SMS, results.getPermission(0));
+        assertFalse(results.isGrantedAt(0));
+        assertTrue(results.isGrantedAt(1));
+        assertTrue(results.isGranted(CAMERA));
+        assertTrue(results.isGranted(PermissionRegistry.handleOf(CAMERA)));
+        assertFalse(results.isGranted(SMS));
+        assertEquals(Boolean.FALSE, results.getGrantedMap().get(SMS));
+    }
+
+    @Test
+    public void permissionsNotRequestedAreNotGranted() {
+        final PermissionResultSet results = PermissionResultSet.create(new String[]{CAMERA},
+                new int[]{PermissionResultSet.PERMISSION_GRANTED});
+
+        assertFalse(results.isGranted(CONTACTS));
+        assertFalse(results.isGranted(PermissionRegistry.handleOf(CONTACTS)));
+        assertFalse(results.isGranted("android.permission.NEVER_SEEN"));
+    }
+
+    @Test
+    public void allGrantedAndAnyDenied() {
+        final PermissionResultSet granted = PermissionResultSet.create(new String[]{CAMERA, CONTACTS},
+                new int[]{PermissionResultSet.PERMISSION_GRANTED, PermissionResultSet.PERMISSION_GRANTED});
+        assertTrue(granted.allGranted());
+        assertFalse(granted.anyDenied());
+
+        final PermissionResultSet denied = PermissionResultSet.create(new String[]{CAMERA, CONTACTS},
+                new int[]{PermissionResultSet.PERMISSION_GRANTED, PermissionResultSet.PERMISSION_DENIED});
+        assertFalse(denied.allGranted());
+        assertTrue(denied.anyDenied());
+
+        final PermissionResultSet empty = PermissionResultSet.create(new String[0], new int[0]);
+        assertFalse(empty.allGranted());
+        assertFalse(empty.anyDenied());
+    }
+
+    @Test
+    public void nextDeniedIteratesTheDeniedPermissions() {
+        final PermissionResultSet results = PermissionResultSet.create(new String[]{CAMERA, SMS, CONTACTS},
+                new int[]{PermissionResultSet.PERMISSION_DENIED, PermissionResultSet.PERMISSION_GRANTED,
+                        PermissionResultSet.PERMISSION_DENIED});
+
+        assertEquals(0, results.nextDenied(0));
+        assertEquals(2, results.nextDenied(1));
+        assertEquals(-1, results.nextDenied(3));
+    }
+
+    @Test
+    public void ofMasksFollowsTheIdentifierOrder() {
+        final long camera = PermissionRegistry.bitOf(CAMERA);
+        final long contacts = PermissionRegistry.bitOf(CONTACTS);
+        final PermissionResultSet results = PermissionResultSet.of(camera | contacts, contacts);
+
+        assertEquals(2, results.size());
+        assertEquals(camera < contacts ? CAMERA : CONTACTS, results.getPermission(0));
+        assertFalse(results.isGranted(CAMERA));
+        assertTrue(results.isGranted(CONTACTS));
+        assertEquals(camera | contacts, results.getRequestedMask());
+    }
+
+    @Test
+    public void ofMasksIgnoresGrantsNotRequested() {
+        final long camera = PermissionRegistry.bitOf(CAMERA);
+        final long contacts = PermissionRegistry.bitOf(CONTACTS);
+        final PermissionResultSet results = PermissionResultSet.of(camera, camera | contacts);
+
+        assertTrue(results.allGranted());
+        assertFalse(results.isGranted(CONTACTS));
+        assertEquals(camera, results.getGrantedMask());
+    }
+}
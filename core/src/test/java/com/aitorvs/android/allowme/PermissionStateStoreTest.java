@@ -0,0 +1,113 @@
+package com.aitorvs.android.allowme;
+
+/*
+ * Copyright (C) 17/10/26 aitorvs
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.assertEquals;
+
+public class PermissionStateStoreTest {
+
+    @Test
+    public void unknownPermissionsWereNeverAsked() {
+        final PermissionStateStore states = new PermissionStateStore();
+        assertEquals(PermissionEngine.STATE_NEVER_ASKED, states.get(3));
+        assertEquals(PermissionEngine.STATE_NEVER_ASKED, states.get(PermissionRegistry.MAX_PERMISSIONS));
+    }
+
+    @Test
+    public void statesDontOverlap() {
+        final PermissionStateStore states = new PermissionStateStore();
+        states.set(0, PermissionEngine.STATE_DENIED_FOREVER);
+        states.set(1, PermissionEngine.STATE_GRANTED);
+        states.set(31, PermissionEngine.STATE_DENIED);
+        states.set(32, PermissionEngine.STATE_DENIED_FOREVER);
+        states.set(0, PermissionEngine.STATE_DENIED);
+
+        assertEquals(PermissionEngine.STATE_DENIED, states.get(0));
+        assertEquals(PermissionEngine.STATE_GRANTED, states.get(1));
+        assertEquals(PermissionEngine.STATE_NEVER_ASKED, states.get(2));
+        assertEquals(PermissionEngine.STATE_DENIED, states.get(31));
+        assertEquals(PermissionEngine.STATE_DENIED_FOREVER, states.get(32));
+    }
+
+    @Test
+    public void maskOfSelectsByState() {
+        final PermissionStateStore states = new PermissionStateStore();
+        states.setAll(0x5L | (1L << 63), PermissionEngine.STATE_GRANTED);
+        states.set(1, PermissionEngine.STATE_DENIED);
+
+        assertEquals(0x5L | (1L << 63), states.maskOf(-1L, PermissionEngine.STATE_GRANTED));
+        assertEquals(0x2L, states.maskOf(0xfL, PermissionEngine.STATE_DENIED));
+        assertEquals(0x1L, states.maskOf(0x3L, PermissionEngine.STATE_GRANTED));
+    }
+
+    @Test
+    public void reprobeDistrustsDeniedForeverUntilConfirmed() {
+        final PermissionStateStore states = new PermissionStateStore();
+        states.set(0, PermissionEngine.STATE_DENIED_FOREVER);
+        states.set(1, PermissionEngine.STATE_DENIED_FOREVER);
+        assertEquals(0x3L, states.deniedForeverOf(0x7L));
+
+        states.reprobe();
+        assertEquals(0, states.deniedForeverOf(0x7L));
+        assertEquals(PermissionEngine.STATE_DENIED_FOREVER, states.get(0));
+
+        // confirmed again by a new result
+        states.set(1, PermissionEngine.STATE_DENIED_FOREVER);
+        assertEquals(0x2L, states.deniedForeverOf(0x7L));
+    }
+
+    @Test
+    public void concurrentUpdatesOfTheSameWordAreNotLost() throws Exception {
+        final PermissionStateStore states = new PermissionStateStore();
+        // all of them packed in the first word
+        final int threads = 8;
+        final int idsPerThread = 4;
+        final CountDownLatch start = new CountDownLatch(1);
+        final Thread[] workers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            final int first = t * idsPerThread;
+            workers[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    for (int i = 0; i < 10000; i++) {
+                        for (int id = first; id < first + idsPerThread; id++) {
+                            states.set(id, (i + id) & 3);
+                        }
+                    }
+                }
+            });
+            workers[t].start();
+        }
+        start.countDown();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+
+        for (int id = 0; id < threads * idsPerThread; id++) {
+            assertEquals("state of " + id, (9999 + id) & 3, states.get(id));
+        }
+    }
+}
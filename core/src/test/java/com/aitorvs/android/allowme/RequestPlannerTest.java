@@ -0,0 +1,73 @@
+package com.aitorvs.android.allowme;
+
+/*
+ * Copyright (C) 17/10/26 aitorvs
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import android.support.annotation.NonNull;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class RequestPlannerTest {
+
+    private static final String CAMERA = "android.permission.CAMERA";
+    private static final String READ_CONTACTS = "android.permission.READ_CONTACTS";
+    private static final String WRITE_CONTACTS = "android.permission.WRITE_CONTACTS";
+    private static final String CONTACTS_GROUP = "android.permission-group.CONTACTS";
+
+    @Test
+    public void permissionsOfAGroupAreSentTogether() {
+        final long mask = PermissionRegistry.maskOf(new String[]{READ_CONTACTS, CAMERA, WRITE_CONTACTS});
+        final RequestPlanner planner = new RequestPlanner(new FakePermissionBackend() {
+            @Override
+            public String getPermissionGroup(@NonNull String permission) {
+                return permission.endsWith("_CONTACTS") ? CONTACTS_GROUP : null;
+            }
+        });
+
+        final String[] plan = planner.plan(mask);
+        // whatever the ids, the two contacts permissions are next to each other
+        assertEquals(3, plan.length);
+        assertEquals(1, Math.abs(indexOf(plan, READ_CONTACTS) - indexOf(plan, WRITE_CONTACTS)));
+    }
+
+    @Test
+    public void failedGroupLookupsDontFailThePlan() {
+        final String[] permissions = {CAMERA, READ_CONTACTS};
+        final RequestPlanner planner = new RequestPlanner(new FakePermissionBackend() {
+            @Override
+            public String getPermissionGroup(@NonNull String permission) {
+                throw new IllegalStateException("Ooops!! Activity not registered (?)");
+            }
+        });
+
+        final String[] plan = planner.plan(PermissionRegistry.maskOf(permissions));
+        assertEquals(2, plan.length);
+        assertTrue(indexOf(plan, CAMERA) >= 0);
+        assertTrue(indexOf(plan, READ_CONTACTS) >= 0);
+    }
+
+    private static int indexOf(String[] permissions, String permission) {
+        for (int i = 0; i < permissions.length; i++) {
+            if (permissions[i].equals(permission)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
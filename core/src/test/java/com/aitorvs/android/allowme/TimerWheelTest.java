@@ -0,0 +1,108 @@
+package com.aitorvs.android.allowme;
+
+/*
+ * Copyright (C) 17/10/26 aitorvs
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class TimerWheelTest {
+
+    private static final long TICK = 1000;
+
+    @Test(expected = IllegalArgumentException.class)
+    public void slotsMustBeAPowerOfTwo() {
+        new TimerWheel(12, TICK);
+    }
+
+    @Test
+    public void expiresOnlyPastDeadlines() {
+        final TimerWheel wheel = new TimerWheel(8, TICK);
+        final TimerWheel.Node early = new TimerWheel.Node();
+        final TimerWheel.Node late = new TimerWheel.Node();
+        wheel.schedule(early, 0, 1500);
+        wheel.schedule(late, 0, 3000);
+
+        assertNull(wheel.expire(1000));
+        assertSame(early, wheel.expire(2000));
+        assertFalse(early.isScheduled());
+        assertTrue(late.isScheduled());
+        assertNull(wheel.expire(2999));
+        assertSame(late, wheel.expire(3000));
+        assertTrue(wheel.isEmpty());
+    }
+
+    @Test
+    public void cancelledNodesNeverExpire() {
+        final TimerWheel wheel = new TimerWheel(8, TICK);
+        final TimerWheel.Node node = new TimerWheel.Node();
+        wheel.schedule(node, 0, 1000);
+        wheel.cancel(node);
+        wheel.cancel(node);
+
+        assertFalse(node.isScheduled());
+        assertTrue(wheel.isEmpty());
+        assertNull(wheel.expire(5000));
+    }
+
+    @Test
+    public void reschedulingMovesTheDeadline() {
+        final TimerWheel wheel = new TimerWheel(8, TICK);
+        final TimerWheel.Node node = new TimerWheel.Node();
+        wheel.schedule(node, 0, 1000);
+        wheel.schedule(node, 0, 4000);
+
+        assertNull(wheel.expire(2000));
+        assertSame(node, wheel.expire(4000));
+        assertTrue(wheel.isEmpty());
+    }
+
+    @Test
+    public void deadlinesPastAFullTurnWaitForTheirRound() {
+        final TimerWheel wheel = new TimerWheel(4, TICK);
+        final TimerWheel.Node node = new TimerWheel.Node();
+        // lands on the slot of tick 2, but two turns later
+        wheel.schedule(node, 0, 10000);
+
+        assertNull(wheel.expire(2000));
+        assertNull(wheel.expire(6000));
+        assertTrue(node.isScheduled());
+        assertSame(node, wheel.expire(10000));
+    }
+
+    @Test
+    public void expiresEveryNodeOfTheElapsedSlots() {
+        final TimerWheel wheel = new TimerWheel(8, TICK);
+        final TimerWheel.Node[] nodes = new TimerWheel.Node[5];
+        for (int i = 0; i < nodes.length; i++) {
+            nodes[i] = new TimerWheel.Node();
+            wheel.schedule(nodes[i], 0, 1000 * (i % 2 + 1));
+        }
+
+        int expired = 0;
+        for (TimerWheel.Node node = wheel.expire(2000); node != null; node = node.nextExpired()) {
+            assertFalse(node.isScheduled());
+            expired++;
+        }
+        assertEquals(nodes.length, expired);
+        assertTrue(wheel.isEmpty());
+    }
+}
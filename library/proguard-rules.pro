@@ -9,6 +9,15 @@
 
 # Add any project specific keep options here:
 
+# Keep the generated permission result dispatchers, looked up by name at runtime
+-keep class **$$PermissionResultDispatcher { *; }
+-keepclasseswithmembers class * {
+    @com.aitorvs.android.allowme.OnPermissionResult <methods>;
+}
+
+# Keep the headless fragment, re-instantiated by name when its activity is restored
+-keep class com.aitorvs.android.allowme.PermissionRequestFragment { <init>(); }
+
 # If your project uses WebView with JS, uncomment the following
 # and specify the fully qualified class name to the JavaScript interface
 # class:
@@ -0,0 +1,330 @@
+package com.aitorvs.android.allowme;
+
+/*
+ * Copyright (C) 17/10/26 aitorvs
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import android.app.Activity;
+import android.content.Context;
+import android.content.pm.PackageManager;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.v4.app.ActivityCompat;
+import android.support.v4.app.FragmentActivity;
+import android.util.Log;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+
+/**
+ * {@link PermissionBackend} of the registered activity. The activity is only weakly held, so it is
+ * never leaked. Requests and prompts made off the main thread are posted to it.
+ * <p>
+ * Prompts are shown one at a time through the {@link PromptPresenter}. A prompt for the same
+ * permissions as a prompt of the same kind already on screen, or queued, is not shown again: it is
+ * answered along with it.
+ */
+final class ActivityPermissionBackend implements PermissionBackend {
+
+    private static final String TAG = ActivityPermissionBackend.class.getSimpleName();
+    // fragments only take 8 bit request codes
+    private static final int FRAGMENT_REQUEST_CODES = 256;
+
+    private volatile WeakReference<Activity> mActivity;
+    private final GrantStateCache mGrantStateCache;
+    private final Handler mMainHandler;
+    private volatile PromptPresenter mPromptPresenter;
+    // main thread only
+    private Prompt mShowing;
+    private final ArrayDeque<Prompt> mQueuedPrompts = new ArrayDeque<>();
+    private volatile boolean mHeadless;
+    // request code of each fragment request code, main thread only
+    private final int[] mFragmentRequestCodes = new int[FRAGMENT_REQUEST_CODES];
+    private int mNextFragmentRequestCode;
+
+    private final Runnable mRepresentPrompt = new Runnable() {
+        @Override
+        public void run() {
+            final Prompt showing = mShowing;
+            final Activity activity = getActivity();
+            if (showing != null && activity != null && showing.getActivity() != activity) {
+                // prompt went away along with its activity
+                present(showing, activity);
+            }
+        }
+    };
+
+    /**
+     * @param grantStateCache grant state cache, shared by all the backends
+     */
+    ActivityPermissionBackend(@NonNull GrantStateCache grantStateCache) {
+        mGrantStateCache = grantStateCache;
+        mMainHandler = new Handler(Looper.getMainLooper());
+        mPromptPresenter = new DialogPromptPresenter();
+    }
+
+    void setActivity(Activity activity) {
+        if (getActivity() != activity) {
+            mActivity = activity != null ? new WeakReference<>(activity) : null;
+            if (activity != null) {
+                mMainHandler.post(mRepresentPrompt);
+            }
+        }
+    }
+
+    /**
+     * @param headless <code>true</code> to send the requests through a
+     *                 {@link PermissionRequestFragment}, which captures their results
+     */
+    void setHeadless(boolean headless) {
+        mHeadless = headless;
+    }
+
+    /**
+     * @param fragmentRequestCode request code of a {@link PermissionRequestFragment} request
+     * @return the request code the request was made with. Must be called from the main thread
+     */
+    int requestCodeOf(int fragmentRequestCode) {
+        return mFragmentRequestCodes[fragmentRequestCode & (FRAGMENT_REQUEST_CODES - 1)];
+    }
+
+    /**
+     * @param presenter {@link PromptPresenter}, <code>null</code> to restore the default one
+     */
+    void setPromptPresenter(@Nullable PromptPresenter presenter) {
+        mPromptPresenter = presenter != null ? presenter : new DialogPromptPresenter();
+    }
+
+    Activity getActivity() {
+        final WeakReference<Activity> activity = mActivity;
+        return activity != null ? activity.get() : null;
+    }
+
+    @NonNull
+    Activity safeActivity() {
+        Activity activity = getActivity();
+        if (activity == null) {
+            throw new IllegalStateException("Ooops!! Activity not registered (?)");
+        }
+
+        return activity;
+    }
+
+    @Override
+    public boolean isPermissionGranted(@NonNull String permission) {
+        return mGrantStateCache.isGranted(permission);
+    }
+
+    @Override
+    public boolean isAttached() {
+        return getActivity() != null;
+    }
+
+    @Override
+    public boolean shouldShowRationale(@NonNull String permission) {
+        return ActivityCompat.shouldShowRequestPermissionRationale(safeActivity(), permission);
+    }
+
+    @Override
+    public long queryState(@NonNull PermissionSet permissions) {
+        final Activity activity = safeActivity();
+        long state = mGrantStateCache.grantedOf(permissions);
+        for (int i = 0; i < permissions.size(); i++) {
+            // rationale is never shown for granted permissions
+            if (!PermissionSet.isGranted(state, i)
+                    && ActivityCompat.shouldShowRequestPermissionRationale(activity, permissions.getPermission(i))) {
+                state |= PermissionSet.rationaleBit(i);
+            }
+        }
+        return state;
+    }
+
+    @Override
+    public String getPermissionGroup(@NonNull String permission) {
+        // groups don't depend on the activity, which may be gone by the time a batch is flushed
+        Context context = mGrantStateCache.getContext();
+        if (context == null) {
+            context = getActivity();
+        }
+        if (context == null) {
+            return null;
+        }
+        try {
+            return context.getPackageManager().getPermissionInfo(permission, 0).group;
+        } catch (PackageManager.NameNotFoundException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public boolean requestPermissions(@NonNull final String[] permissions, final int requestCode) {
+        final Activity activity = getActivity();
+        if (activity == null) {
+            return false;
+        }
+
+        if (isMainThread()) {
+            send(activity, permissions, requestCode);
+        } else {
+            mMainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    final Activity activity = getActivity();
+                    if (activity == null) {
+                        // left to the pending request timeout
+                        Log.w(TAG, "requestPermissions: Activity unregistered before the request was sent");
+                        return;
+                    }
+                    send(activity, permissions, requestCode);
+                }
+            });
+        }
+        return true;
+    }
+
+    private void send(Activity activity, String[] permissions, int requestCode) {
+        if (mHeadless && activity instanceof FragmentActivity) {
+            // slots are reused round robin, requests are long answered by then
+            final int fragmentRequestCode = mNextFragmentRequestCode;
+            mNextFragmentRequestCode = (fragmentRequestCode + 1) & (FRAGMENT_REQUEST_CODES - 1);
+            mFragmentRequestCodes[fragmentRequestCode] = requestCode;
+            PermissionRequestFragment.attach((FragmentActivity) activity).request(permissions, fragmentRequestCode);
+        } else {
+            ActivityCompat.requestPermissions(activity, permissions, requestCode);
+        }
+    }
+
+    @Override
+    public void showPrompt(final int prompt,
+                           @NonNull final String[] permissions,
+                           @NonNull final PromptMessage message,
+                           final int themeId,
+                           @NonNull final PromptListener listener) {
+        if (!isMainThread()) {
+            mMainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    showPrompt(prompt, permissions, message, themeId, listener);
+                }
+            });
+            return;
+        }
+
+        final long permissionSet = PermissionRegistry.maskOf(permissions);
+        if (mShowing != null && mShowing.join(prompt, permissionSet, listener)) {
+            return;
+        }
+        for (Prompt queued : mQueuedPrompts) {
+            if (queued.join(prompt, permissionSet, listener)) {
+                return;
+            }
+        }
+
+        mQueuedPrompts.add(new Prompt(prompt, permissionSet, message, themeId, listener));
+        showNextPrompt();
+    }
+
+    private void showNextPrompt() {
+        while (mShowing == null && !mQueuedPrompts.isEmpty()) {
+            final Prompt next = mQueuedPrompts.poll();
+            final Activity activity = getActivity();
+            if (activity == null) {
+                Log.w(TAG, "showPrompt: Activity not registered, prompt declined");
+                next.answer(false);
+            } else {
+                mShowing = next;
+                present(next, activity);
+            }
+        }
+    }
+
+    private void present(Prompt prompt, Activity activity) {
+        prompt.mActivity = new WeakReference<>(activity);
+        // resources are only resolved once the prompt is actually shown
+        final PromptMessage message = prompt.mMessage;
+        final CharSequence text = message.getText() != null
+                ? message.getText()
+                : activity.getText(message.getResId());
+        mPromptPresenter.showPrompt(activity, prompt.mPrompt, text, prompt.mThemeId, prompt);
+    }
+
+    /**
+     * Prompt on screen or queued, along with the listeners of every request waiting for its answer
+     */
+    private final class Prompt implements PromptListener {
+        final int mPrompt;
+        final long mPermissions;
+        final PromptMessage mMessage;
+        final int mThemeId;
+        private final ArrayList<PromptListener> mListeners = new ArrayList<>(2);
+        WeakReference<Activity> mActivity;
+
+        Prompt(int prompt, long permissions, PromptMessage message, int themeId, PromptListener listener) {
+            mPrompt = prompt;
+            mPermissions = permissions;
+            mMessage = message;
+            mThemeId = themeId;
+            mListeners.add(listener);
+        }
+
+        Activity getActivity() {
+            return mActivity != null ? mActivity.get() : null;
+        }
+
+        boolean join(int prompt, long permissions, PromptListener listener) {
+            // each request keeps its own message unless asking for the very same permissions
+            if (prompt != mPrompt || permissions != mPermissions) {
+                return false;
+            }
+            mListeners.add(listener);
+            return true;
+        }
+
+        @Override
+        public void onPromptAnswered(boolean accepted) {
+            if (mShowing != this) {
+                // answered already
+                return;
+            }
+            mShowing = null;
+            answer(accepted);
+            showNextPrompt();
+        }
+
+        void answer(boolean accepted) {
+            for (PromptListener listener : mListeners) {
+                listener.onPromptAnswered(accepted);
+            }
+        }
+    }
+
+    @Override
+    public void postDelayed(@NonNull Runnable task, long delayMillis) {
+        mMainHandler.postDelayed(task, delayMillis);
+    }
+
+    @Override
+    public long uptimeMillis() {
+        return SystemClock.uptimeMillis();
+    }
+
+    private static boolean isMainThread() {
+        return Looper.myLooper() == Looper.getMainLooper();
+    }
+}
@@ -0,0 +1,73 @@
+package com.aitorvs.android.allowme;
+
+/*
+ * Copyright (C) 17/10/26 aitorvs
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import android.app.Activity;
+import android.support.annotation.NonNull;
+
+/**
+ * Permission requests of a single activity, with a backend and an engine of its own, so
+ * activities request and dispatch independently. Handed over to the new activity when the
+ * activity is recreated on a configuration change.
+ */
+final class ActivityScope {
+
+    private final Class<? extends Activity> mActivityClass;
+    private final ActivityPermissionBackend mBackend;
+    private final PermissionEngine mEngine;
+
+    ActivityScope(@NonNull Activity activity,
+                  @NonNull GrantStateCache grantStateCache,
+                  @NonNull PermissionMetrics metrics,
+                  @NonNull PermissionStateStore states) {
+        mActivityClass = activity.getClass();
+        mBackend = new ActivityPermissionBackend(grantStateCache);
+        mBackend.setActivity(activity);
+        mEngine = new PermissionEngine(mBackend, metrics, states);
+    }
+
+    @NonNull
+    ActivityPermissionBackend getBackend() {
+        return mBackend;
+    }
+
+    @NonNull
+    PermissionEngine getEngine() {
+        return mEngine;
+    }
+
+    /**
+     * @return activity of the scope, <code>null</code> once destroyed
+     */
+    Activity getActivity() {
+        return mBackend.getActivity();
+    }
+
+    /**
+     * Hands the scope over to the activity recreated in place of the scope activity
+     *
+     * @param activity new activity
+     * @return <code>true</code> when the scope was adopted by the activity
+     */
+    boolean adopt(@NonNull Activity activity) {
+        if (getActivity() != null || activity.getClass() != mActivityClass) {
+            return false;
+        }
+        mBackend.setActivity(activity);
+        return true;
+    }
+}
@@ -17,241 +17,675 @@ package com.aitorvs.android.allowme;
  */
 
 import android.app.Activity;
-import android.app.AlertDialog;
-import android.content.DialogInterface;
-import android.content.SharedPreferences;
-import android.content.pm.PackageManager;
-import android.preference.PreferenceManager;
+import android.app.Application;
+import android.content.Context;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
 import android.support.annotation.IntRange;
 import android.support.annotation.NonNull;
 import android.support.annotation.StringRes;
-import android.support.v4.app.ActivityCompat;
-import android.support.v4.content.ContextCompat;
 import android.util.Log;
 
-import java.lang.reflect.Method;
+import java.lang.ref.WeakReference;
 import java.security.InvalidParameterException;
 import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.concurrent.Executor;
 
+/**
+ * Android front end of the {@link PermissionEngine}, requesting the permissions from the registered
+ * activity. Every activity gets its own pending requests, so activities, ie. in multi-window mode,
+ * request and dispatch independently.
+ */
 public class AllowMe {
 
     private static final String TAG = AllowMe.class.getSimpleName();
-    private static final String ALLOWME_SHOULD_SHOW_PRIMING_KEY = TAG + ".key.should_show_priming";
-    private static AllowMe instance;
 
-    private Activity mActivity;
-    private final Map<String, ArrayList<AllowMeCallback>> mRequestList;
+    /**
+     * Request code of the system permission requests that coalesce several batched requests.
+     * Do not use it as a request code of your own.
+     */
+    public static final int BATCH_REQUEST_CODE = PermissionEngine.BATCH_REQUEST_CODE;
+    /**
+     * Batch window value to send every request to the system right away (default)
+     */
+    public static final long BATCH_DISABLED = PermissionEngine.BATCH_DISABLED;
+    /**
+     * Batch window value to coalesce all requests made until the next main loop turn
+     */
+    public static final long BATCH_NEXT_FRAME = PermissionEngine.BATCH_NEXT_FRAME;
+    /**
+     * Default time after which a pending request without result is evicted
+     */
+    public static final long DEFAULT_REQUEST_TIMEOUT = PermissionEngine.DEFAULT_REQUEST_TIMEOUT;
+    /**
+     * Request state of a permission never requested, or not requested since the process started
+     */
+    public static final int STATE_NEVER_ASKED = PermissionEngine.STATE_NEVER_ASKED;
+    /**
+     * Request state of a granted permission
+     */
+    public static final int STATE_GRANTED = PermissionEngine.STATE_GRANTED;
+    /**
+     * Request state of a denied permission that can be requested again
+     */
+    public static final int STATE_DENIED = PermissionEngine.STATE_DENIED;
+    /**
+     * Request state of a permission denied for good ("Never ask again"), requests for it are
+     * completed right away as denied. The first request after an activity resumes still asks the
+     * system, in case the user allowed it again from the Settings app.
+     */
+    public static final int STATE_DENIED_FOREVER = PermissionEngine.STATE_DENIED_FOREVER;
+
+    private final GrantStateCache mGrantStateCache;
+    private final GrantStateTracker mGrantStateTracker;
+    private final PermissionMetrics mMetrics;
+    private final PermissionStateStore mStates;
+    private final Handler mMainHandler;
+    // scopes of the live activities, and of the ones being recreated
+    private final ArrayList<ActivityScope> mScopes;
+    // last registered activity, its scope is only created on its first request
+    private volatile WeakReference<Activity> mCurrentActivity;
+    // scope of the last registered activity once created, looked up first
+    private volatile ActivityScope mCurrent;
+    private volatile PrimingStore mPrimingStore;
+    private volatile boolean mManifestLoaded;
+    private volatile boolean mInstalled;
+
+    // settings of every scope
+    private volatile long mBatchWindow = BATCH_DISABLED;
+    private volatile Executor mDispatchExecutor;
+    private volatile long mRequestTimeout = DEFAULT_REQUEST_TIMEOUT;
+    private volatile PromptPresenter mPromptPresenter;
+
+    private final Executor mMainThreadExecutor = new Executor() {
+        @Override
+        public void execute(@NonNull Runnable command) {
+            mMainHandler.post(command);
+        }
+    };
 
     private AllowMe() {
-        mRequestList = new HashMap<>();
+        mGrantStateCache = new GrantStateCache();
+        mGrantStateTracker = new GrantStateTracker();
+        mMetrics = new PermissionMetrics();
+        mStates = new PermissionStateStore();
+        mMainHandler = new Handler(Looper.getMainLooper());
+        mScopes = new ArrayList<>();
+        mPrimingStore = new SharedPreferencesPrimingStore();
+    }
+
+    // singleton class, lazily created and safely published by the class loader
+    private static final class InstanceHolder {
+        static final AllowMe INSTANCE = new AllowMe();
     }
 
-    // singleton class
     private static AllowMe getInstance() {
-        if (instance == null) {
-            instance = new AllowMe();
+        return InstanceHolder.INSTANCE;
+    }
+
+    /**
+     * @return the engine of the last registered activity, created on first use
+     */
+    private static PermissionEngine getEngine() {
+        final AllowMe allowMe = getInstance();
+        final Activity activity = allowMe.currentActivity();
+        if (activity == null) {
+            throw new IllegalStateException("Ooops!! Activity not registered (?)");
         }
+        final ActivityScope current = allowMe.mCurrent;
+        if (current != null && current.getActivity() == activity) {
+            return current.getEngine();
+        }
+        final ActivityScope scope = allowMe.scopeOf(activity, true);
+        allowMe.mCurrent = scope;
+        return scope.getEngine();
+    }
 
-        return instance;
+    /**
+     * @return the last registered activity, <code>null</code> when none
+     */
+    private Activity currentActivity() {
+        final WeakReference<Activity> activity = mCurrentActivity;
+        return activity != null ? activity.get() : null;
+    }
+
+    /**
+     * Looks up the scope of the activity. Activities recreated on a configuration change adopt
+     * the scope of the activity they replace.
+     *
+     * @param activity activity
+     * @param create   <code>true</code> to create the scope when missing
+     * @return the activity scope, <code>null</code> when missing and not created
+     */
+    private ActivityScope scopeOf(Activity activity, boolean create) {
+        final ActivityScope found = findScope(activity);
+        if (found != null) {
+            return found;
+        }
+
+        synchronized (mScopes) {
+            for (int i = 0; i < mScopes.size(); i++) {
+                if (mScopes.get(i).adopt(activity)) {
+                    return mScopes.get(i);
+                }
+            }
+            if (!create) {
+                return null;
+            }
+
+            // forget the scopes of the activities gone with nothing pending
+            for (int i = mScopes.size() - 1; i >= 0; i--) {
+                final ActivityScope scope = mScopes.get(i);
+                if (scope.getActivity() == null && scope.getEngine().getPendingRequests() == 0) {
+                    mScopes.remove(i);
+                }
+            }
+
+            final ActivityScope scope = new ActivityScope(activity, mGrantStateCache, mMetrics, mStates);
+            scope.getBackend().setHeadless(mInstalled);
+            scope.getBackend().setPromptPresenter(mPromptPresenter);
+            scope.getEngine().setBatchWindow(mBatchWindow);
+            scope.getEngine().setDispatchExecutor(mDispatchExecutor);
+            scope.getEngine().setPendingRequestTimeout(mRequestTimeout);
+            mScopes.add(scope);
+            return scope;
+        }
+    }
+
+    /**
+     * @param activity activity
+     * @return the scope of the activity, <code>null</code> when missing
+     */
+    private ActivityScope findScope(Activity activity) {
+        final ActivityScope current = mCurrent;
+        if (current != null && current.getActivity() == activity) {
+            return current;
+        }
+
+        synchronized (mScopes) {
+            for (int i = 0; i < mScopes.size(); i++) {
+                if (mScopes.get(i).getActivity() == activity) {
+                    return mScopes.get(i);
+                }
+            }
+            return null;
+        }
+    }
+
+    /**
+     * @return point in time copy of the scopes
+     */
+    private ActivityScope[] scopes() {
+        synchronized (mScopes) {
+            return mScopes.toArray(new ActivityScope[mScopes.size()]);
+        }
+    }
+
+    /**
+     * Captures the application context, so permissions can be checked before any activity is
+     * registered and from any thread, e.g. from services or worker threads. Called by
+     * {@link #install(Application)} and {@link #registerActivity(Activity)}.
+     *
+     * @param context any context of the application
+     */
+    public static void init(@NonNull Context context) {
+        final AllowMe allowMe = getInstance();
+        if (!allowMe.mManifestLoaded) {
+            allowMe.loadManifest(context);
+        }
+        allowMe.mGrantStateCache.attach(context);
+        // load in background, well before the first request
+        allowMe.mPrimingStore.preload(context);
+    }
+
+    /**
+     * Tracks the resumed activity of the application and captures the permission request results
+     * through a headless fragment, so activities neither extend {@link AllowMeActivity} nor forward
+     * their lifecycle or results. Call it once, from <code>Application.onCreate()</code>.
+     * <p>
+     * Results of activities that are not a <code>FragmentActivity</code> must still be forwarded
+     * to {@link #dispatchResult(int, String[], int[])}.
+     *
+     * @param application application
+     */
+    public static void install(@NonNull Application application) {
+        init(application);
+        final AllowMe allowMe = getInstance();
+        synchronized (allowMe.mScopes) {
+            if (allowMe.mInstalled) {
+                return;
+            }
+            allowMe.mInstalled = true;
+            for (ActivityScope scope : allowMe.mScopes) {
+                scope.getBackend().setHeadless(true);
+            }
+        }
+        application.registerActivityLifecycleCallbacks(new LifecycleTracker());
+    }
+
+    /**
+     * Keeps the resumed activity registered
+     */
+    private static final class LifecycleTracker implements Application.ActivityLifecycleCallbacks {
+        @Override
+        public void onActivityCreated(Activity activity, Bundle savedInstanceState) {
+        }
+
+        @Override
+        public void onActivityStarted(Activity activity) {
+        }
+
+        @Override
+        public void onActivityResumed(Activity activity) {
+            registerActivity(activity);
+        }
+
+        @Override
+        public void onActivityPaused(Activity activity) {
+            unregisterActivity(activity);
+        }
+
+        @Override
+        public void onActivityStopped(Activity activity) {
+        }
+
+        @Override
+        public void onActivitySaveInstanceState(Activity activity, Bundle outState) {
+        }
+
+        @Override
+        public void onActivityDestroyed(Activity activity) {
+            AllowMe.onActivityDestroyed(activity);
+        }
     }
 
     public static void registerActivity(@NonNull Activity activity) {
-        getInstance().mActivity = activity;
+        init(activity);
+        final AllowMe allowMe = getInstance();
+        // requests made from now on belong to this activity, scope is only looked up when it
+        // already exists, e.g. to be adopted after a configuration change
+        final ActivityScope scope = allowMe.scopeOf(activity, false);
+        final boolean changed = allowMe.currentActivity() != activity;
+        allowMe.mCurrentActivity = new WeakReference<>(activity);
+        allowMe.mCurrent = scope;
+        if (changed) {
+            // user may have changed the grants in the Settings app while away, registering again
+            // along the same lifecycle transition has nothing new to tell
+            allowMe.mGrantStateCache.invalidate();
+            allowMe.mStates.reprobe();
+            allowMe.publishGrantState();
+        }
+        if (scope != null) {
+            // batch may have been deferred waiting for an activity
+            scope.getEngine().resume();
+        }
+    }
 
+    private synchronized void loadManifest(Context context) {
+        if (mManifestLoaded) {
+            return;
+        }
+        final String[] declared = ManifestPermissions.load(context.getApplicationContext());
+        if (declared != null) {
+            PermissionRegistry.declare(declared);
+        }
+        mManifestLoaded = true;
     }
 
     public static void unregisterActivity(@NonNull Activity activity) {
+        final AllowMe allowMe = getInstance();
+        final Activity current = allowMe.currentActivity();
         //noinspection ConstantConditions
-        if (getInstance().mActivity == null || activity == null) {
+        if (current == null || activity == null) {
             Log.w(TAG, "Trying to unregister null activity");
-        }else if (activity.getClass().getName().equals(getInstance().mActivity.getClass().getName())) {
-            getInstance().mActivity = null;
+        } else if (current == activity) {
+            // its requests in flight still get their results
+            allowMe.mCurrentActivity = null;
+            allowMe.mCurrent = null;
         } else {
             Log.w(TAG, "unregisterActivity: Old activity is trying to unregister");
         }
-
     }
 
-    private static Activity safeActivity() {
-        Activity activity = getInstance().mActivity;
-        if (activity == null) {
-            throw new IllegalStateException("Ooops!! Activity not registered (?)");
+    /**
+     * Evicts the pending requests made from the given activity, so their callbacks don't keep it
+     * alive. Requests survive configuration changes, their result is delivered to the new activity.
+     *
+     * @param activity destroyed activity
+     */
+    public static void onActivityDestroyed(@NonNull Activity activity) {
+        final AllowMe allowMe = getInstance();
+        if (allowMe.currentActivity() == activity) {
+            allowMe.mCurrentActivity = null;
+            allowMe.mCurrent = null;
+        }
+        final ActivityScope scope = allowMe.findScope(activity);
+        if (scope == null) {
+            return;
         }
 
-        return activity;
+        // released for the recreated activity to adopt it
+        scope.getBackend().setActivity(null);
+        if (!activity.isChangingConfigurations()) {
+            synchronized (allowMe.mScopes) {
+                allowMe.mScopes.remove(scope);
+            }
+            scope.getEngine().evictAll();
+        }
     }
 
     /**
-     * Checks whether a particular permissions is already granted
+     * Checks whether a particular permissions is already granted. Safe to call from any thread,
+     * with or without a registered activity, once {@link #init(Context)} was called.
      *
      * @param permission permission
      * @return <code>boolean</code> value, <code>true</code> when permissions is already granted,
      * <code>false</code> when permissions not granted.
      */
     public static boolean isPermissionGranted(@NonNull String permission) {
-        return ContextCompat.checkSelfPermission(safeActivity(), permission) == PackageManager.PERMISSION_GRANTED;
+        return getInstance().mGrantStateCache.isGranted(permission);
     }
 
     /**
-     * Checks whether user should show the permissions request rationale or not
+     * Returns the request state of a permission, learnt from the request results
      *
      * @param permission permission
-     * @return Returns <code>boolean</code> with value <code>true</code> when rationale should be shown
-     * or <code>false</code> otherwise
+     * @return {@link #STATE_NEVER_ASKED}, {@link #STATE_GRANTED}, {@link #STATE_DENIED} or
+     * {@link #STATE_DENIED_FOREVER}
      */
-    public static boolean shouldShowRationale(@NonNull String permission) {
-        return ActivityCompat.shouldShowRequestPermissionRationale(safeActivity(), permission);
+    public static int getPermissionState(@NonNull String permission) {
+        return getEngine().getPermissionState(permission);
     }
 
     /**
-     * Dispatches the permission request to the user handler
+     * Checks the grant and rationale state of all the permissions of a set at once. Prefer it to
+     * calling {@link #isPermissionGranted(String)} in a loop.
      *
-     * @param requestCode  permission request code
-     * @param permissions  permissions
-     * @param grantResults request results
-     * @return boolean Return <code>false</code> to allow normal menu processing to
-     * proceed, <code>true</code> to consume it here.
+     * @param permissions permission set, compiled once with {@link PermissionSet#of(String...)}
+     * @return state of the set, read it with {@link PermissionSet#isGranted(long, int)} and
+     * {@link PermissionSet#shouldShowRationale(long, int)}
      */
-    public static boolean dispatchResult(int requestCode, String[] permissions, int[] grantResults) {
-        synchronized (getRequestQueue()) {
-            // get all the permission keys
-            final String cacheKey = getRequestKey(requestCode, permissions);
-            // get all registered callbacks for the key
-            final ArrayList<AllowMeCallback> callbacks = getRequestQueue().get(cacheKey);
-
-            // no callbacks return
-            if (callbacks != null) {
-                final PermissionResultSet resultSet = PermissionResultSet.create(permissions, grantResults);
-
-                for (AllowMeCallback callback : callbacks) {
-                    callback.onPermissionResult(requestCode, resultSet);
-                }
+    public static long queryPermissionState(@NonNull PermissionSet permissions) {
+        return getEngine().queryState(permissions);
+    }
 
-                // now remove the request from the queue
-                getRequestQueue().remove(cacheKey);
+    /**
+     * Enables or disables the permission grant state cache used by
+     * {@link #isPermissionGranted(String)}. The cache is enabled by default.
+     *
+     * @param enabled <code>true</code> to cache grant states, <code>false</code> to query the
+     *                system on every call
+     */
+    public static void setGrantStateCacheEnabled(boolean enabled) {
+        getInstance().mGrantStateCache.setEnabled(enabled);
+    }
 
-                // consume the event here
-                return true;
-            }
+    /**
+     * Coalesces the permission requests made within the given time window into a single system
+     * permission request, so the user is not shown several dialogs in a row. Each callback still
+     * receives its own request code and only the results of the permissions it asked for.
+     *
+     * @param windowMillis {@link #BATCH_NEXT_FRAME} to batch until the next main loop turn,
+     *                     a positive number of milliseconds, or {@link #BATCH_DISABLED}
+     */
+    public static void setBatchWindow(long windowMillis) {
+        getInstance().mBatchWindow = windowMillis;
+        for (ActivityScope scope : getInstance().scopes()) {
+            scope.getEngine().setBatchWindow(windowMillis);
+        }
+    }
+
+    /**
+     * Sets the executor the {@link AllowMeCallback}s are called on. Callbacks of the same request
+     * code are still called in order.
+     * <p>
+     * By default callbacks are called synchronously from {@link #dispatchResult(int, String[], int[])}.
+     *
+     * @param executor callback executor, <code>null</code> to restore the default
+     * @see #mainThreadExecutor()
+     */
+    public static void setDispatchExecutor(Executor executor) {
+        getInstance().mDispatchExecutor = executor;
+        for (ActivityScope scope : getInstance().scopes()) {
+            scope.getEngine().setDispatchExecutor(executor);
+        }
+    }
+
+    /**
+     * @return an {@link Executor} that posts to the next main loop turn
+     */
+    @NonNull
+    public static Executor mainThreadExecutor() {
+        return getInstance().mMainThreadExecutor;
+    }
 
-            // no callback called, event not consumed here.
-            return false;
+    /**
+     * Sets the time after which a pending request that got no result is evicted, along with its
+     * callbacks. Its {@link PermissionFuture}, if any, is cancelled.
+     *
+     * @param timeoutMillis timeout in milliseconds, <code>0</code> to never evict requests.
+     *                      Defaults to {@link #DEFAULT_REQUEST_TIMEOUT}
+     */
+    public static void setPendingRequestTimeout(long timeoutMillis) {
+        getInstance().mRequestTimeout = timeoutMillis;
+        for (ActivityScope scope : getInstance().scopes()) {
+            scope.getEngine().setPendingRequestTimeout(timeoutMillis);
         }
     }
 
     /**
-     * Requests the permission, showing the given rationale when necessary and calls the registered
-     * callback when permission request operation is performed
+     * Installs the listener of the permission request metrics. Metrics are only recorded while a
+     * listener is installed.
      *
-     * @param callback        {@link AllowMeCallback} callback method
-     * @param requestCode     request code identifier
-     * @param rationale        string rationale to be shown when appropriate
-     * @param rationaleThemeId rationale alert dialog theme id
-     * @param permission      permission under request
-     */
-    private static void requestPermissionWithRationale(
-            final AllowMeCallback callback,
-            final int requestCode,
-            String rationale,
-            int rationaleThemeId,
-            final String permission) {
-
-        // healthy check
-        if (isPermissionGranted(permission)) {
-            // permission is already granted...why you ask?
-            return;
+     * @param listener {@link PermissionMetrics.Listener}, <code>null</code> to stop recording
+     */
+    public static void setMetricsListener(PermissionMetrics.Listener listener) {
+        getInstance().mMetrics.setListener(listener);
+    }
+
+    /**
+     * @return point in time copy of the permission request metrics
+     */
+    @NonNull
+    public static PermissionMetrics.Snapshot getMetricsSnapshot() {
+        return getInstance().mMetrics.snapshot();
+    }
+
+    /**
+     * Sets the store that records which permissions already showed their priming message.
+     * Defaults to a {@link SharedPreferencesPrimingStore}.
+     *
+     * @param primingStore {@link PrimingStore}
+     */
+    public static void setPrimingStore(@NonNull PrimingStore primingStore) {
+        getInstance().mPrimingStore = primingStore;
+        final Activity activity = getInstance().currentActivity();
+        if (activity != null) {
+            primingStore.preload(activity);
         }
+    }
 
-        if (ActivityCompat.shouldShowRequestPermissionRationale(safeActivity(), permission)) {
-            AlertDialog.Builder builder = new AlertDialog.Builder(safeActivity(), rationaleThemeId)
-                    .setTitle("")
-                    .setMessage(rationale)
-                    .setPositiveButton("OK", new DialogInterface.OnClickListener() {
-                        @Override
-                        public void onClick(DialogInterface dialog, int which) {
-                            requestPermissions(callback, requestCode, permission);
-                        }
-                    })
-                    .setNegativeButton("Not Now", null);
+    /**
+     * Enables dispatching the results of {@link Builder#requestPermissionForResult(Object, int)}
+     * through reflection to the handler classes the annotation processor has not seen. Disabled by
+     * default: those handlers are rejected, add the <code>compiler</code> module as annotation
+     * processor instead.
+     *
+     * @param enabled <code>true</code> to enable the reflective fallback
+     */
+    public static void setReflectiveDispatchEnabled(boolean enabled) {
+        PermissionResultDispatchers.setReflectionEnabled(enabled);
+    }
 
-            builder.show();
-        } else {
-            requestPermissions(callback, requestCode, permission);
+    /**
+     * Sets the presenter of the priming and rationale prompts. Defaults to an alert dialog
+     * per prompt.
+     *
+     * @param presenter {@link PromptPresenter}, <code>null</code> to restore the default one
+     */
+    public static void setPromptPresenter(PromptPresenter presenter) {
+        getInstance().mPromptPresenter = presenter;
+        for (ActivityScope scope : getInstance().scopes()) {
+            scope.getBackend().setPromptPresenter(presenter);
         }
     }
 
     /**
-     * Requests the permission, and calls the registered callback when permission request operation
-     * is performed
+     * Subscribes to the grant state changes of all permissions, see
+     * {@link #subscribe(PermissionSet, PermissionChangeListener)}
      *
-     * @param callback    callback method
-     * @param requestCode request code identifier
-     * @param permission  permission to request
+     * @param listener listener
      */
-    private static void requestPermission(
-            final AllowMeCallback callback,
-            int requestCode,
-            final String permission) {
+    public static void subscribe(@NonNull PermissionChangeListener listener) {
+        subscribe(null, listener);
+    }
 
-        // healthy check
-        if (!isPermissionGranted(permission)) {
-            requestPermissions(callback, requestCode, permission);
+    /**
+     * Subscribes to the grant state changes of the given permissions, e.g. granted by the user in
+     * the Settings app. Grant states are checked once per activity resume and once per request
+     * result, and the listener is called on the main thread only when one of the permissions
+     * changed since then, instead of polling {@link #isPermissionGranted(String)}.
+     *
+     * @param permissions permissions to watch, <code>null</code> for all
+     * @param listener    listener
+     */
+    public static void subscribe(PermissionSet permissions, @NonNull PermissionChangeListener listener) {
+        final AllowMe allowMe = getInstance();
+        if (allowMe.mGrantStateTracker.subscribe(permissions, listener)) {
+            // states were not tracked while nobody listened
+            allowMe.mGrantStateTracker.reset();
+            allowMe.publishGrantState();
         }
     }
 
-    private static void requestPermissions(
-            AllowMeCallback callback,
-            int requestCode,
-            String... permissions) {
+    /**
+     * @param listener listener to remove from every subscription
+     */
+    public static void unsubscribe(@NonNull PermissionChangeListener listener) {
+        getInstance().mGrantStateTracker.unsubscribe(listener);
+    }
 
-        synchronized (getRequestQueue()) {
-            final String requestKey = getRequestKey(requestCode, permissions);
-            ArrayList<AllowMeCallback> callbackList = getRequestQueue().get(requestKey);
-            if (callbackList != null) {
-                callbackList.add(callback);
-            } else {
-                callbackList = new ArrayList<>();
-                callbackList.add(callback);
-                getRequestQueue().put(requestKey, callbackList);
+    /**
+     * Snapshots the grant states and notifies the changes to the subscribers
+     */
+    private void publishGrantState() {
+        if (mGrantStateTracker.hasSubscribers() && mGrantStateCache.isAttached()) {
+            mGrantStateCache.publish(mGrantStateTracker);
+        }
+    }
+
+    /**
+     * Forces the grant state cache to be refreshed on the next {@link #isPermissionGranted(String)}
+     * call
+     */
+    public static void refreshGrantState() {
+        getInstance().mGrantStateCache.invalidate();
+    }
 
-                ActivityCompat.requestPermissions(safeActivity(), permissions, requestCode);
+    /**
+     * Checks whether user should show the permissions request rationale or not. Answered from the
+     * request results seen so far when possible, without asking the system
+     *
+     * @param permission permission
+     * @return Returns <code>boolean</code> with value <code>true</code> when rationale should be shown
+     * or <code>false</code> otherwise
+     */
+    public static boolean shouldShowRationale(@NonNull String permission) {
+        return getEngine().shouldShowRationale(permission);
+    }
+
+    /**
+     * Dispatches the permission request to the user handler
+     *
+     * @param requestCode  permission request code
+     * @param permissions  permissions
+     * @param grantResults request results
+     * @return boolean Return <code>false</code> to allow normal menu processing to
+     * proceed, <code>true</code> to consume it here.
+     */
+    public static boolean dispatchResult(int requestCode, String[] permissions, int[] grantResults) {
+        // grants have changed
+        getInstance().mGrantStateCache.invalidate();
+
+        // results belong to the request of any activity, the current one most likely
+        ActivityScope target = getInstance().mCurrent;
+        if (target == null || !target.getEngine().expects(requestCode, permissions)) {
+            for (ActivityScope scope : getInstance().scopes()) {
+                if (scope.getEngine().expects(requestCode, permissions)) {
+                    target = scope;
+                    break;
+                }
             }
         }
+        final boolean consumed;
+        if (target == null) {
+            getInstance().mMetrics.onRequestDropped(requestCode);
+            consumed = false;
+        } else {
+            consumed = target.getEngine().dispatchResult(requestCode, permissions, grantResults);
+        }
+        getInstance().publishGrantState();
+        return consumed;
     }
 
     /**
-     * Generates a key given the permissions requested and its request code
+     * Dispatches the permission request results of the given activity to the user handler
      *
-     * @param requestCode request code identifier
-     * @param permissions permissions
-     * @return generated request key
+     * @param activity     activity that got the results
+     * @param requestCode  permission request code
+     * @param permissions  permissions
+     * @param grantResults request results
+     * @return <code>true</code> when the results were consumed
      */
-    private static String getRequestKey(int requestCode, String[] permissions) {
-        StringBuilder result = new StringBuilder();
-        result.append(requestCode);
-        for (String perm : permissions) {
-            result.append(perm);
-            result.append("\0");
+    public static boolean dispatchResult(@NonNull Activity activity, int requestCode, String[] permissions, int[] grantResults) {
+        final ActivityScope scope = getInstance().scopeOf(activity, false);
+        if (scope == null) {
+            return dispatchResult(requestCode, permissions, grantResults);
         }
-        return result.toString();
+
+        // grants have changed
+        getInstance().mGrantStateCache.invalidate();
+        final boolean consumed = scope.getEngine().dispatchResult(requestCode, permissions, grantResults);
+        getInstance().publishGrantState();
+        return consumed;
     }
 
-    private static Map<String, ArrayList<AllowMeCallback>> getRequestQueue() {
-        return getInstance().mRequestList;
+    /**
+     * Dispatches the results captured by the {@link PermissionRequestFragment} of the activity
+     */
+    static void dispatchFragmentResult(@NonNull Activity activity, int fragmentRequestCode, String[] permissions, int[] grantResults) {
+        // results may come before the recreated activity is registered
+        final ActivityScope scope = getInstance().scopeOf(activity, false);
+        if (scope == null) {
+            Log.w(TAG, "dispatchFragmentResult: No requests made from the activity");
+            return;
+        }
+        dispatchResult(activity, scope.getBackend().requestCodeOf(fragmentRequestCode), permissions, grantResults);
     }
 
     /**
      * Builder class
      */
     public static class Builder {
-        private String rationale;
+        private PromptMessage rationale;
         private int rationaleThemeId = 0;
-        private String permission;
+        private String[] permissions;
         private AllowMeCallback callback;
-        private String primingMessage;
+        private PromptMessage primingMessage;
+        private Activity activity;
+
+        /**
+         * Set the activity the permissions are requested from (Optional). Defaults to the last
+         * registered activity.
+         *
+         * @param activity {@link Activity}
+         * @return {@link Builder}
+         */
+        public Builder setActivity(@NonNull Activity activity) {
+            this.activity = activity;
+            return this;
+        }
 
         /**
          * Set the permission rationale message
@@ -260,18 +694,18 @@ public class AllowMe {
          * @return {@link Builder}
          */
         public Builder setRationale(@NonNull String rationale) {
-            this.rationale = rationale;
+            this.rationale = PromptMessage.of(rationale);
             return this;
         }
 
         /**
-         * Sset the permission rationale
+         * Sset the permission rationale, the resource is only resolved when the rationale is shown
          *
          * @param res Rationale string resource ID
          * @return {@link Builder}
          */
         public Builder setRationale(@StringRes int res) {
-            this.rationale = safeActivity().getString(res);
+            this.rationale = PromptMessage.of(res);
             return this;
         }
 
@@ -287,13 +721,31 @@ public class AllowMe {
         }
 
         /**
-         * Set the permission to request
+         * Set the permissions to request
          *
          * @param permissions permissions
          * @return {@link Builder}
+         * @throws IllegalStateException when a permission is not declared in the manifest
          */
-        public Builder setPermissions(@NonNull String permissions) {
-            this.permission = permissions;
+        public Builder setPermissions(@NonNull String... permissions) {
+            for (String permission : permissions) {
+                PermissionRegistry.requireDeclared(permission);
+            }
+            this.permissions = permissions.clone();
+            return this;
+        }
+
+        /**
+         * Set the permissions to request
+         *
+         * @param permissions permission handles
+         * @return {@link Builder}
+         */
+        public Builder setPermissions(@NonNull Permission... permissions) {
+            this.permissions = new String[permissions.length];
+            for (int i = 0; i < permissions.length; i++) {
+                this.permissions[i] = permissions[i].getName();
+            }
             return this;
         }
 
@@ -316,12 +768,27 @@ public class AllowMe {
          * @return {@link Builder}
          */
         public Builder setPrimingMessage(String primingMessage) {
-            this.primingMessage = primingMessage;
+            this.primingMessage = primingMessage != null ? PromptMessage.of(primingMessage) : null;
+            return this;
+        }
+
+        /**
+         * Set the permission priming message that will be shown before the permission is request
+         * (Optional). The resource is only resolved when the message is shown.
+         *
+         * @param res priming message string resource ID
+         * @return {@link Builder}
+         */
+        public Builder setPrimingMessage(@StringRes int res) {
+            this.primingMessage = PromptMessage.of(res);
             return this;
         }
 
         /**
-         * Request the permissions set using the Builder
+         * Request the permissions set using the Builder. Permissions already granted are not sent
+         * to the system, and the callback is called right away when all of them are granted.
+         * Permissions already being requested, under any request code, are not asked again: the
+         * callback gets their results, under this request code, once the pending request is answered.
          *
          * @param requestCode positive <code>int</code> value to identify the permission request
          */
@@ -330,25 +797,32 @@ public class AllowMe {
             throwIfNoPermissions();
             throwIfNoCallback();
 
-            // permission priming ?
-            if (this.primingMessage != null && shouldShowPrimingMessage()) {
-                // show the priming message
-                AlertDialog.Builder builder = new AlertDialog.Builder(safeActivity(), rationaleThemeId)
-                        .setTitle("")
-                        .setMessage(this.primingMessage)
-                        .setPositiveButton("OK", new DialogInterface.OnClickListener() {
-                            @Override
-                            public void onClick(DialogInterface dialog, int which) {
-                                requestPermission(Builder.this.callback, requestCode);
-                            }
-                        })
-                        .setNegativeButton("Not now", null);
-
-                builder.show();
-            } else if (this.primingMessage == null) {
-                // request permission directly
-                requestPermission(Builder.this.callback, requestCode);
+            start(this.callback, null, requestCode);
+        }
+
+        /**
+         * Request the permissions set using the Builder, returning a handle to the result instead of
+         * calling back. Each awaiter of the same pending request gets a handle of its own.
+         * <p>
+         * The handle is cancelled when the user dismisses the priming or rationale messages, and
+         * completed right away when the permissions are already granted.
+         *
+         * @param requestCode positive <code>int</code> value to identify the permission request
+         * @return {@link PermissionFuture} completed with the request results
+         */
+        @NonNull
+        public PermissionFuture<PermissionResultSet> requestAsync(@IntRange(from = 1, to = Integer.MAX_VALUE) final int requestCode) {
+            throwIfNoPermissions();
+
+            // join the request if already pending
+            final PermissionFuture<PermissionResultSet> pending = engine().pendingFuture(requestCode, this.permissions);
+            if (pending != null) {
+                return pending;
             }
+
+            final PermissionFuture<PermissionResultSet> future = new PermissionFuture<>();
+            start(null, future, requestCode);
+            return future;
         }
 
         public void requestPermissionForResult(final @NonNull Object handlerClass,
@@ -356,138 +830,76 @@ public class AllowMe {
             // throw when user forgot the permissions
             throwIfNoPermissions();
             // we don't need the callbacks here because should be using annotated callback
-            final Method annotatedCallback = getAnnotatedMethod(handlerClass, OnPermissionResult.class);
-            annotatedCallback.setAccessible(true);
-
-            final int fRequestCode = requestCode;
-
-            // do the magic
-            // permission priming ?
-            if (this.primingMessage != null && shouldShowPrimingMessage()) {
-                // show the priming message
-                AlertDialog.Builder builder = new AlertDialog.Builder(safeActivity(), rationaleThemeId)
-                        .setTitle("")
-                        .setMessage(this.primingMessage)
-                        .setPositiveButton("OK", new DialogInterface.OnClickListener() {
-                            @Override
-                            public void onClick(DialogInterface dialog, int which) {
-                                requestPermission(new AllowMeCallback() {
-                                    @Override
-                                    public void onPermissionResult(int requestCode, PermissionResultSet results) {
-                                        try {
-                                            annotatedCallback.invoke(handlerClass, requestCode, results);
-                                        } catch (Exception e) {
-                                            throw new IllegalStateException(String.format("Error invoking %s", annotatedCallback.getName()), e);
-                                        }
-                                    }
-                                }, fRequestCode);
-                            }
-                        })
-                        .setNegativeButton("Not now", null);
-
-                builder.show();
-            } else if (this.primingMessage == null) {
-                // request permission directly
-                requestPermission(new AllowMeCallback() {
-                    @Override
-                    public void onPermissionResult(int requestCode, PermissionResultSet results) {
-                        try {
-                            annotatedCallback.invoke(handlerClass, requestCode, results);
-                        } catch (Exception e) {
-                            throw new IllegalStateException(String.format("Error invoking %s", annotatedCallback.getName()), e);
-                        }
-                    }
-                }, fRequestCode);
+            final PermissionResultDispatcher<Object> dispatcher = PermissionResultDispatchers.get(handlerClass.getClass());
+            final int handler = dispatcher.findHandler(PermissionResultDispatchers.sorted(this.permissions));
+            if (handler < 0) {
+                throw new IllegalStateException(String.format("No OnPermissionResult annotated " +
+                        "methods found in %s or with different permission set parameters.", handlerClass.getClass().getName()));
             }
 
-
-        }
-
-        private Method getAnnotatedMethod(Object target, Class<OnPermissionResult> targetAnnotation) {
-            final Method[] targetMethods = target.getClass().getDeclaredMethods();
-            Method match = null;
-            for (Method method : targetMethods) {
-                OnPermissionResult annotation = method.getAnnotation(targetAnnotation);
-                // FIXME: 02/01/16 permissions should eventually be an array
-                if (annotation != null && equalPermissions(new String[]{this.permission}, annotation.requestedPermissions())) {
-                    match = method;
-                    break;
+            final AllowMeCallback annotatedCallback = new AllowMeCallback() {
+                @Override
+                public void onPermissionResult(int requestCode, PermissionResultSet results) {
+                    dispatcher.dispatch(handlerClass, handler, requestCode, results);
                 }
-            }
+            };
 
-            // check the correctness of the annotated method
-            if (match == null) {
-                throw new IllegalStateException(String.format("No OnPermissionResult annotated " +
-                        "methods found in %s or with different permission set parameters.", target.getClass().getName()));
-            } else if (match.getParameterTypes().length != 2
-                    || !match.getParameterTypes()[0].toString().equalsIgnoreCase("int")
-                    || match.getParameterTypes()[1] != PermissionResultSet.class) {
-                throw new IllegalStateException(String.format("Method %s shall have two " +
-                        "parameters of type 'int' and 'PermissionResultSet'", match.getName()));
-            }
-
-            return match;
+            start(annotatedCallback, null, requestCode);
         }
 
         /**
-         * Compare two array of permissions, independent of the order inside the array
+         * Starts the request flow, showing the priming message first when needed
          *
-         * @param foo array of permissions
-         * @param bar array of permissions
-         * @return <code>true</code> when match, <code>false</code> otherwise
+         * @param callback    permission request callback, may be <code>null</code>
+         * @param future      permission request future, may be <code>null</code>
+         * @param requestCode permission request code identifier
          */
-        private boolean equalPermissions(String[] foo, String[] bar) {
-            if (foo == null || bar == null) {
-                return (foo == null) && (bar == null);
-            } else if (foo.length != bar.length) {
-                return false;
-            }
-
-            // sort the arrays
-            Arrays.sort(foo);
-            Arrays.sort(bar);
+        private void start(AllowMeCallback callback,
+                           PermissionFuture<PermissionResultSet> future,
+                           int requestCode) {
+            final PermissionEngine engine = engine();
+            // permission priming ?
+            final PromptMessage primingMessage = this.primingMessage != null && shouldShowPrimingMessage()
+                    ? this.primingMessage
+                    : null;
 
-            // do the actual compare
-            for (int i = 0; i < foo.length; i++) {
-                if (!foo[i].equals(bar[i]))
-                    return false;
-            }
-            return true;
+            engine.request(callback, future, requestCode, this.permissions, primingMessage, rationale, rationaleThemeId);
         }
 
-        /**
-         * Request the permissions using the {@link Builder} fields and the given params
-         *
-         * @param callback    permission request callback
-         * @param requestCode permission request code identifier
-         */
-        private void requestPermission(AllowMeCallback callback, int requestCode) {
-            if (rationale == null) {
-                AllowMe.requestPermission(callback, requestCode, this.permission);
-            } else {
-                AllowMe.requestPermissionWithRationale(callback, requestCode, rationale, rationaleThemeId, this.permission);
+        private PermissionEngine engine() {
+            if (this.activity == null) {
+                return getEngine();
             }
+            // activity may not be registered
+            init(this.activity);
+            return getInstance().scopeOf(this.activity, true).getEngine();
         }
 
         /**
          * Returns whether the permission priming message should be shown.
-         * The method will return <code>true</code> the first call around, so the permission priming
-         * message is shown. After that first call, method will return <code>false</code>
+         * The method will return <code>true</code> the first call around for any of the permissions,
+         * so the permission priming message is shown. After that first call, method will return
+         * <code>false</code> for those permissions
          *
          * @return <code>true</code> first call around, <code>false</code> other method calls
          */
         public boolean shouldShowPrimingMessage() {
-            SharedPreferences sharedPreferences = PreferenceManager.getDefaultSharedPreferences(safeActivity());
-            boolean value = sharedPreferences.getBoolean(ALLOWME_SHOULD_SHOW_PRIMING_KEY, true);
-
-            // we've been called, set it to false again
-            sharedPreferences.edit().putBoolean(ALLOWME_SHOULD_SHOW_PRIMING_KEY, false).apply();
+            throwIfNoPermissions();
+            final PrimingStore primingStore = getInstance().mPrimingStore;
+            boolean value = false;
+            for (String permission : this.permissions) {
+                if (!primingStore.isPrimed(permission)) {
+                    value = true;
+                    // we've been called, set it as primed
+                    primingStore.setPrimed(permission);
+                }
+            }
 
             return value;
         }
 
         private void throwIfNoPermissions() {
-            if (this.permission == null) {
+            if (this.permissions == null || this.permissions.length == 0) {
                 throw new InvalidParameterException("Permissions must be set");
             }
         }
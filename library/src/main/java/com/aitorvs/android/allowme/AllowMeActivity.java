@@ -20,6 +20,10 @@ import android.os.Bundle;
 import android.support.annotation.NonNull;
 import android.support.v7.app.AppCompatActivity;
 
+/**
+ * Activity keeping itself registered and forwarding its permission request results. Not needed
+ * once {@link AllowMe#install(android.app.Application)} is called.
+ */
 public class AllowMeActivity extends AppCompatActivity {
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -55,9 +59,16 @@ public class AllowMeActivity extends AppCompatActivity {
         AllowMe.unregisterActivity(this);
     }
 
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        // drop the requests that can't get a result anymore
+        AllowMe.onActivityDestroyed(this);
+    }
+
     @Override
     public void onRequestPermissionsResult(int requestCode, @NonNull String[] permissions, @NonNull int[] grantResults) {
-        boolean consumed = AllowMe.dispatchResult(requestCode, permissions, grantResults);
+        boolean consumed = AllowMe.dispatchResult(this, requestCode, permissions, grantResults);
         if (!consumed) {
             // this means we didn't find any callback for this permission, try super!
             super.onRequestPermissionsResult(requestCode, permissions, grantResults);
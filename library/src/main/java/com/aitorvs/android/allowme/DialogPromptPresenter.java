@@ -0,0 +1,105 @@
+package com.aitorvs.android.allowme;
+
+/*
+ * Copyright (C) 17/10/26 aitorvs
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import android.app.Activity;
+import android.app.AlertDialog;
+import android.content.DialogInterface;
+import android.support.annotation.NonNull;
+
+/**
+ * Default {@link PromptPresenter}, an {@link AlertDialog} per prompt.
+ * <p>
+ * The dialog references its activity, so it is only kept while on screen: it is dropped once
+ * answered, or replaced when the prompt moves to another activity. A dialog is never shown again
+ * once answered, its button handler dismisses it right after the answer, which would close the
+ * next prompt along with it.
+ */
+final class DialogPromptPresenter implements PromptPresenter {
+
+    // main thread only
+    private PromptDialog mDialog;
+
+    @Override
+    public void showPrompt(@NonNull Activity activity,
+                           int prompt,
+                           @NonNull CharSequence message,
+                           int themeId,
+                           @NonNull PermissionBackend.PromptListener listener) {
+        if (mDialog != null) {
+            // prompt shown again, e.g. on the activity recreated after a configuration change
+            mDialog.release();
+        }
+        mDialog = new PromptDialog(activity, themeId);
+        mDialog.show(message, listener);
+    }
+
+    private final class PromptDialog implements DialogInterface.OnClickListener, DialogInterface.OnCancelListener {
+        private final Activity mActivity;
+        private final AlertDialog mDialog;
+        private PermissionBackend.PromptListener mListener;
+
+        PromptDialog(Activity activity, int themeId) {
+            mActivity = activity;
+            mDialog = new AlertDialog.Builder(activity, themeId)
+                    .setTitle("")
+                    .setPositiveButton("OK", this)
+                    .setNegativeButton("Not now", this)
+                    .setOnCancelListener(this)
+                    .create();
+        }
+
+        void show(CharSequence message, PermissionBackend.PromptListener listener) {
+            mListener = listener;
+            mDialog.setMessage(message);
+            mDialog.show();
+        }
+
+        /**
+         * Drops the dialog, the prompt on screen, if any, is shown again by the caller
+         */
+        void release() {
+            mListener = null;
+            // windows of a destroyed activity go away with it
+            if (mDialog.isShowing() && !mActivity.isFinishing() && !mActivity.isChangingConfigurations()) {
+                mDialog.dismiss();
+            }
+        }
+
+        @Override
+        public void onClick(DialogInterface dialog, int which) {
+            answer(which == DialogInterface.BUTTON_POSITIVE);
+        }
+
+        @Override
+        public void onCancel(DialogInterface dialog) {
+            answer(false);
+        }
+
+        private void answer(boolean accepted) {
+            final PermissionBackend.PromptListener listener = mListener;
+            mListener = null;
+            // dismissed along with the answer, the next prompt gets a dialog of its own
+            if (DialogPromptPresenter.this.mDialog == this) {
+                DialogPromptPresenter.this.mDialog = null;
+            }
+            if (listener != null) {
+                listener.onPromptAnswered(accepted);
+            }
+        }
+    }
+}
@@ -0,0 +1,207 @@
+package com.aitorvs.android.allowme;
+
+/*
+ * Copyright (C) 17/10/26 aitorvs
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import android.content.Context;
+import android.content.pm.PackageManager;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.v4.content.ContextCompat;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Caches the grant state of permissions, indexed by {@link PermissionRegistry} id, to avoid going
+ * through the package manager on every {@link AllowMe#isPermissionGranted(String)} call.
+ * <p>
+ * Grant states are checked against the application context, so the cache can be queried from any
+ * thread, with or without a registered activity. They are kept in an immutable snapshot of two
+ * permission set masks, replaced with a compare-and-set: readers never block, and a refresh racing
+ * with an invalidation is simply not published. Permissions beyond the mask size are not cached.
+ * <p>
+ * Once invalidated, the next query refreshes in a single pass every permission interned so far,
+ * which are only the ones the app has used, not the whole manifest.
+ */
+final class GrantStateCache {
+
+    private static final Snapshot STALE = new Snapshot(0, 0, 0);
+
+    private final AtomicReference<Snapshot> mSnapshot = new AtomicReference<>(STALE);
+    private volatile Context mContext;
+    private volatile boolean mEnabled = true;
+
+    /**
+     * Captures the application context the grant states are checked against
+     *
+     * @param context any context of the application
+     */
+    void attach(@NonNull Context context) {
+        if (mContext == null) {
+            mContext = context.getApplicationContext();
+        }
+    }
+
+    boolean isAttached() {
+        return mContext != null;
+    }
+
+    /**
+     * @return the application context, <code>null</code> until attached
+     */
+    @Nullable
+    Context getContext() {
+        return mContext;
+    }
+
+    boolean isGranted(@NonNull String permission) {
+        final Context context = safeContext();
+        final int id = PermissionRegistry.idOf(permission);
+        if (!mEnabled || id >= PermissionRegistry.MAX_PERMISSIONS) {
+            return check(context, permission);
+        }
+
+        final long bit = 1L << id;
+        Snapshot snapshot = snapshot(context);
+        if ((snapshot.mKnown & bit) == 0) {
+            snapshot = learn(context, snapshot, id);
+        }
+        return (snapshot.mGranted & bit) != 0;
+    }
+
+    /**
+     * @param permissions permission set
+     * @return grant bits of the set state, see {@link PermissionSet}
+     */
+    long grantedOf(@NonNull PermissionSet permissions) {
+        final Context context = safeContext();
+        Snapshot snapshot = mEnabled ? snapshot(context) : STALE;
+
+        long granted = 0;
+        for (int i = 0; i < permissions.size(); i++) {
+            final boolean isGranted;
+            if (!mEnabled) {
+                isGranted = check(context, permissions.getPermission(i));
+            } else {
+                final long bit = 1L << permissions.getId(i);
+                if ((snapshot.mKnown & bit) == 0) {
+                    snapshot = learn(context, snapshot, permissions.getId(i));
+                }
+                isGranted = (snapshot.mGranted & bit) != 0;
+            }
+            if (isGranted) {
+                granted |= PermissionSet.grantedBit(i);
+            }
+        }
+        return granted;
+    }
+
+    /**
+     * Publishes the cached grant states to the tracker, refreshing them first when stale
+     *
+     * @param tracker grant state tracker
+     */
+    void publish(@NonNull GrantStateTracker tracker) {
+        final Snapshot snapshot = snapshot(safeContext());
+        tracker.publish(snapshot.mKnown, snapshot.mGranted);
+    }
+
+    /**
+     * Marks all cached states as stale, they will be refreshed on next query
+     */
+    void invalidate() {
+        Snapshot snapshot;
+        do {
+            snapshot = mSnapshot.get();
+        } while (!mSnapshot.compareAndSet(snapshot, new Snapshot(0, 0, snapshot.mGeneration + 1)));
+    }
+
+    void setEnabled(boolean enabled) {
+        mEnabled = enabled;
+        invalidate();
+    }
+
+    /**
+     * @return the current snapshot, refreshing every interned permission first when stale
+     */
+    private Snapshot snapshot(Context context) {
+        final Snapshot snapshot = mSnapshot.get();
+        if (snapshot.mKnown != 0) {
+            return snapshot;
+        }
+
+        final int size = Math.min(PermissionRegistry.size(), PermissionRegistry.MAX_PERMISSIONS);
+        long known = 0;
+        long granted = 0;
+        for (int id = 0; id < size; id++) {
+            known |= 1L << id;
+            if (check(context, PermissionRegistry.nameOf(id))) {
+                granted |= 1L << id;
+            }
+        }
+        final Snapshot refreshed = new Snapshot(known, granted, snapshot.mGeneration);
+        // when lost to an invalidation, the answer is still right for this query
+        mSnapshot.compareAndSet(snapshot, refreshed);
+        return refreshed;
+    }
+
+    /**
+     * Checks a permission missing from the snapshot and publishes its state
+     */
+    private Snapshot learn(Context context, Snapshot snapshot, int id) {
+        final long bit = 1L << id;
+        final long granted = check(context, PermissionRegistry.nameOf(id)) ? bit : 0;
+        Snapshot current = snapshot;
+        while (true) {
+            final Snapshot learnt = new Snapshot(current.mKnown | bit,
+                    (current.mGranted & ~bit) | granted, current.mGeneration);
+            if (mSnapshot.compareAndSet(current, learnt)) {
+                return learnt;
+            }
+            final Snapshot latest = mSnapshot.get();
+            if (latest.mGeneration != snapshot.mGeneration) {
+                // invalidated meanwhile, don't publish a state checked before that
+                return learnt;
+            }
+            current = latest;
+        }
+    }
+
+    private Context safeContext() {
+        final Context context = mContext;
+        if (context == null) {
+            throw new IllegalStateException("Ooops!! AllowMe not initialized, call AllowMe.init(context) first");
+        }
+        return context;
+    }
+
+    private static boolean check(Context context, String permission) {
+        return ContextCompat.checkSelfPermission(context, permission) == PackageManager.PERMISSION_GRANTED;
+    }
+
+    private static final class Snapshot {
+        // permissions whose state is cached, and those of them that are granted
+        final long mKnown;
+        final long mGranted;
+        final int mGeneration;
+
+        Snapshot(long known, long granted, int generation) {
+            mKnown = known;
+            mGranted = granted;
+            mGeneration = generation;
+        }
+    }
+}
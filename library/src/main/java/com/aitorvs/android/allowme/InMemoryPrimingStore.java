@@ -1,7 +1,7 @@
 package com.aitorvs.android.allowme;
 
 /*
- * Copyright (C) 02/12/15 aitorvs
+ * Copyright (C) 17/10/26 aitorvs
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
  * you may not use this file except in compliance with the License.
@@ -16,27 +16,28 @@ package com.aitorvs.android.allowme;
  * limitations under the License.
  */
 
-import android.content.pm.PackageManager;
+import android.content.Context;
 import android.support.annotation.NonNull;
 
-import java.io.Serializable;
-
-class PermissionResult implements Serializable {
+/**
+ * {@link PrimingStore} that is not persisted, useful for tests
+ */
+public class InMemoryPrimingStore implements PrimingStore {
 
-    private String mPermission;
-    private boolean mGranted;
+    private long mPrimed;
 
-    protected PermissionResult(@NonNull String permission, int granted) {
-        mPermission = permission;
-        mGranted = granted == PackageManager.PERMISSION_GRANTED;
+    @Override
+    public void preload(@NonNull Context context) {
+        // nothing to load
     }
 
-    @NonNull
-    public String getPermission() {
-        return mPermission;
+    @Override
+    public synchronized boolean isPrimed(@NonNull String permission) {
+        return (mPrimed & PermissionRegistry.bitOf(permission)) != 0;
     }
 
-    public boolean isGranted() {
-        return mGranted;
+    @Override
+    public synchronized void setPrimed(@NonNull String permission) {
+        mPrimed |= PermissionRegistry.bitOf(permission);
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,48 @@
+package com.aitorvs.android.allowme;
+
+/*
+ * Copyright (C) 17/10/26 aitorvs
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import android.content.Context;
+import android.content.pm.PackageInfo;
+import android.content.pm.PackageManager;
+import android.support.annotation.NonNull;
+
+/**
+ * Reads the permissions declared in the app manifest, to validate requests against them, see
+ * {@link PermissionRegistry#declare(String[])}. A single package manager call, permissions are
+ * neither classified nor interned here: ids are assigned as permissions are first used.
+ */
+final class ManifestPermissions {
+
+    private ManifestPermissions() {
+    }
+
+    /**
+     * @param context context
+     * @return permissions requested in the manifest, or <code>null</code> when the manifest can't
+     * be read
+     */
+    static String[] load(@NonNull Context context) {
+        try {
+            final PackageInfo info = context.getPackageManager().getPackageInfo(context.getPackageName(),
+                    PackageManager.GET_PERMISSIONS);
+            return info.requestedPermissions != null ? info.requestedPermissions : new String[0];
+        } catch (PackageManager.NameNotFoundException e) {
+            return null;
+        }
+    }
+}
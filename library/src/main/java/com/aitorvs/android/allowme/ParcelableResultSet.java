@@ -0,0 +1,78 @@
+package com.aitorvs.android.allowme;
+
+/*
+ * Copyright (C) 17/10/26 aitorvs
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import android.os.Parcel;
+import android.os.Parcelable;
+import android.support.annotation.NonNull;
+
+/**
+ * {@link Parcelable} holder of a {@link PermissionResultSet}, to pass it along in an
+ * <code>Intent</code> or keep it in the saved instance state. Parceled in its compact binary form,
+ * see {@link PermissionResultSet#toByteArray()}, which keeps the permission names so it is safe to
+ * restore after the process is recreated.
+ */
+public final class ParcelableResultSet implements Parcelable {
+
+    private final PermissionResultView mView;
+
+    public ParcelableResultSet(@NonNull PermissionResultSet results) {
+        this(PermissionResultView.wrap(results.toByteArray()));
+    }
+
+    private ParcelableResultSet(PermissionResultView view) {
+        mView = view;
+    }
+
+    /**
+     * @return read-only view over the results
+     */
+    @NonNull
+    public PermissionResultView getView() {
+        return mView;
+    }
+
+    /**
+     * @return the decoded results
+     */
+    @NonNull
+    public PermissionResultSet getResults() {
+        return mView.toResultSet();
+    }
+
+    @Override
+    public int describeContents() {
+        return 0;
+    }
+
+    @Override
+    public void writeToParcel(Parcel dest, int flags) {
+        dest.writeByteArray(mView.getData());
+    }
+
+    public static final Creator<ParcelableResultSet> CREATOR = new Creator<ParcelableResultSet>() {
+        @Override
+        public ParcelableResultSet createFromParcel(Parcel source) {
+            return new ParcelableResultSet(PermissionResultView.wrap(source.createByteArray()));
+        }
+
+        @Override
+        public ParcelableResultSet[] newArray(int size) {
+            return new ParcelableResultSet[size];
+        }
+    };
+}
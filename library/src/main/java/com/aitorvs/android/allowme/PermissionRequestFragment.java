@@ -0,0 +1,104 @@
+package com.aitorvs.android.allowme;
+
+/*
+ * Copyright (C) 17/10/26 aitorvs
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import android.os.Bundle;
+import android.support.annotation.NonNull;
+import android.support.v4.app.Fragment;
+import android.support.v4.app.FragmentActivity;
+import android.support.v4.app.FragmentManager;
+
+import java.util.ArrayList;
+import java.util.WeakHashMap;
+
+/**
+ * Headless fragment sending the permission requests of its activity and capturing their results,
+ * so activities don't have to forward <code>onRequestPermissionsResult</code>. Added on the first
+ * request of each activity once {@link AllowMe#install(android.app.Application)} is called, and
+ * retained so results of requests in flight survive configuration changes.
+ * <p>
+ * Internal, not meant to be used directly.
+ */
+public final class PermissionRequestFragment extends Fragment {
+
+    private static final String TAG = PermissionRequestFragment.class.getName();
+
+    // fragments committed and not added yet, they can't be found by tag until then. Main thread only
+    private static final WeakHashMap<FragmentActivity, PermissionRequestFragment> PENDING = new WeakHashMap<>();
+
+    // requests made before the fragment was added
+    private final ArrayList<String[]> mQueuedPermissions = new ArrayList<>(1);
+    private final ArrayList<Integer> mQueuedRequestCodes = new ArrayList<>(1);
+
+    /**
+     * @param activity activity
+     * @return the fragment of the activity, added when missing. Must be called from the main thread
+     */
+    @NonNull
+    static PermissionRequestFragment attach(@NonNull FragmentActivity activity) {
+        final FragmentManager fragmentManager = activity.getSupportFragmentManager();
+        PermissionRequestFragment fragment = (PermissionRequestFragment) fragmentManager.findFragmentByTag(TAG);
+        if (fragment == null) {
+            fragment = PENDING.get(activity);
+        }
+        if (fragment == null) {
+            fragment = new PermissionRequestFragment();
+            PENDING.put(activity, fragment);
+            // not executed right away, the fragment manager may be running its transactions already,
+            // e.g. for a request made from the onCreate() of a fragment being added
+            fragmentManager.beginTransaction()
+                    .add(fragment, TAG)
+                    .commitAllowingStateLoss();
+        }
+        return fragment;
+    }
+
+    /**
+     * Requests the permissions, once the fragment is added
+     *
+     * @param permissions permissions
+     * @param requestCode fragment request code
+     */
+    void request(@NonNull String[] permissions, int requestCode) {
+        if (isAdded()) {
+            requestPermissions(permissions, requestCode);
+        } else {
+            mQueuedPermissions.add(permissions);
+            mQueuedRequestCodes.add(requestCode);
+        }
+    }
+
+    @Override
+    public void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setRetainInstance(true);
+        PENDING.remove(getActivity());
+        for (int i = 0; i < mQueuedPermissions.size(); i++) {
+            requestPermissions(mQueuedPermissions.get(i), mQueuedRequestCodes.get(i));
+        }
+        mQueuedPermissions.clear();
+        mQueuedRequestCodes.clear();
+    }
+
+    @Override
+    public void onRequestPermissionsResult(int requestCode, @NonNull String[] permissions, @NonNull int[] grantResults) {
+        final FragmentActivity activity = getActivity();
+        if (activity != null) {
+            AllowMe.dispatchFragmentResult(activity, requestCode, permissions, grantResults);
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package com.aitorvs.android.allowme;
+
+/*
+ * Copyright (C) 17/10/26 aitorvs
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import android.content.Context;
+import android.support.annotation.NonNull;
+
+/**
+ * Stores which permissions have already shown their priming message
+ *
+ * @see AllowMe#setPrimingStore(PrimingStore)
+ */
+public interface PrimingStore {
+
+    /**
+     * Starts loading the stored state, without blocking the caller. Called when an activity is
+     * registered.
+     *
+     * @param context context
+     */
+    void preload(@NonNull Context context);
+
+    /**
+     * @param permission permission
+     * @return <code>true</code> when the priming message of the permission was already shown
+     */
+    boolean isPrimed(@NonNull String permission);
+
+    /**
+     * Records the priming message of the permission as shown
+     *
+     * @param permission permission
+     */
+    void setPrimed(@NonNull String permission);
+}
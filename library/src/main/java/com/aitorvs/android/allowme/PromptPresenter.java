@@ -0,0 +1,45 @@
+package com.aitorvs.android.allowme;
+
+/*
+ * Copyright (C) 17/10/26 aitorvs
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import android.app.Activity;
+import android.support.annotation.NonNull;
+
+/**
+ * Shows the priming and rationale prompts on the registered activity. Install your own with
+ * {@link AllowMe#setPromptPresenter(PromptPresenter)} to replace the default dialog.
+ * <p>
+ * Prompts are shown one at a time, always from the main thread.
+ */
+public interface PromptPresenter {
+
+    /**
+     * Shows a prompt. The listener must be called exactly once, dismissing the prompt without
+     * answering it counts as declining it.
+     *
+     * @param activity activity to show the prompt on
+     * @param prompt   {@link PermissionMetrics#PROMPT_PRIMING} or {@link PermissionMetrics#PROMPT_RATIONALE}
+     * @param message  prompt message
+     * @param themeId  prompt theme identifier, <code>0</code> for the default theme
+     * @param listener called once the user answers
+     */
+    void showPrompt(@NonNull Activity activity,
+                    int prompt,
+                    @NonNull CharSequence message,
+                    int themeId,
+                    @NonNull PermissionBackend.PromptListener listener);
+}
@@ -0,0 +1,169 @@
+package com.aitorvs.android.allowme;
+
+/*
+ * Copyright (C) 17/10/26 aitorvs
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.Process;
+import android.support.annotation.NonNull;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * {@link PrimingStore} persisted in {@link SharedPreferences}.
+ * <p>
+ * Preferences are loaded in background, flags are kept in memory as a bit mask over
+ * {@link PermissionRegistry} ids and written back asynchronously, coalescing the updates. Queries
+ * never block: until the preferences are loaded they are answered from the flags set so far, which
+ * are merged with the loaded ones.
+ */
+public class SharedPreferencesPrimingStore implements PrimingStore {
+
+    private static final String PREFERENCES_NAME = "com.aitorvs.android.allowme.priming";
+    private static final String PRIMED_PERMISSIONS_KEY = "primed_permissions";
+
+    private final Executor mExecutor;
+    private SharedPreferences mPreferences;
+    private long mPrimed;
+    private boolean mLoading;
+    private boolean mFlushScheduled;
+
+    private final Runnable mFlush = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+
+    // own background thread, not to queue behind the app tasks, lazily created
+    private static final class ExecutorHolder {
+        static final Executor EXECUTOR = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(@NonNull final Runnable runnable) {
+                final Thread thread = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                        runnable.run();
+                    }
+                }, "AllowMe-priming");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    public SharedPreferencesPrimingStore() {
+        this(ExecutorHolder.EXECUTOR);
+    }
+
+    /**
+     * @param executor background executor used to load and write the preferences
+     */
+    public SharedPreferencesPrimingStore(@NonNull Executor executor) {
+        mExecutor = executor;
+    }
+
+    @Override
+    public void preload(@NonNull Context context) {
+        synchronized (this) {
+            if (mLoading) {
+                return;
+            }
+            mLoading = true;
+        }
+
+        final Context appContext = context.getApplicationContext();
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                load(appContext);
+            }
+        });
+    }
+
+    @Override
+    public synchronized boolean isPrimed(@NonNull String permission) {
+        return (mPrimed & PermissionRegistry.bitOf(permission)) != 0;
+    }
+
+    @Override
+    public synchronized void setPrimed(@NonNull String permission) {
+        final long primed = mPrimed | PermissionRegistry.bitOf(permission);
+        if (primed == mPrimed) {
+            return;
+        }
+        mPrimed = primed;
+        // written once loaded otherwise
+        if (mPreferences != null) {
+            scheduleFlush();
+        }
+    }
+
+    private void load(Context context) {
+        SharedPreferences preferences = null;
+        long loaded = 0;
+        try {
+            preferences = context.getSharedPreferences(PREFERENCES_NAME, Context.MODE_PRIVATE);
+            final Set<String> primed = preferences.getStringSet(PRIMED_PERMISSIONS_KEY, Collections.<String>emptySet());
+            for (String permission : primed) {
+                final int id = PermissionRegistry.idOf(permission);
+                // permissions that no longer fit in the mask are primed again
+                if (id < PermissionRegistry.MAX_PERMISSIONS) {
+                    loaded |= 1L << id;
+                }
+            }
+        } finally {
+            synchronized (this) {
+                mPreferences = preferences;
+                // merged with the flags set while loading
+                final long merged = mPrimed | loaded;
+                if (preferences != null && merged != loaded) {
+                    scheduleFlush();
+                }
+                mPrimed = merged;
+            }
+        }
+    }
+
+    private void scheduleFlush() {
+        if (!mFlushScheduled) {
+            mFlushScheduled = true;
+            mExecutor.execute(mFlush);
+        }
+    }
+
+    private void flush() {
+        final Set<String> primed = new HashSet<>();
+        final SharedPreferences preferences;
+        synchronized (this) {
+            mFlushScheduled = false;
+            preferences = mPreferences;
+            long mask = mPrimed;
+            while (mask != 0) {
+                primed.add(PermissionRegistry.nameOf(Long.numberOfTrailingZeros(mask)));
+                mask &= mask - 1;
+            }
+        }
+        preferences.edit().putStringSet(PRIMED_PERMISSIONS_KEY, primed).apply();
+    }
+}